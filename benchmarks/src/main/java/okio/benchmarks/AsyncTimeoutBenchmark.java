@@ -0,0 +1,61 @@
+package okio.benchmarks;
+
+import okio.AsyncTimeout;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enters and exits one timeout while {@code armed} others, like those of idle sockets, stay
+ * scheduled. This is the path every read and write of a timed socket takes.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class AsyncTimeoutBenchmark {
+
+    @Param({"0", "20000"})
+    int armed;
+
+    private AsyncTimeout[] background;
+
+    private final AsyncTimeout timeout = new AsyncTimeout();
+
+    @Setup
+    public void setup() {
+        background = new AsyncTimeout[armed];
+        for (int i = 0; i < armed; i++) {
+            background[i] = new AsyncTimeout();
+            background[i].timeout(60 + i % 60, TimeUnit.SECONDS);
+            background[i].enter();
+        }
+        timeout.timeout(30, TimeUnit.SECONDS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (AsyncTimeout t : background) {
+            t.exit();
+        }
+    }
+
+    @Benchmark
+    public boolean enterExit() {
+        timeout.enter();
+        return timeout.exit();
+    }
+}
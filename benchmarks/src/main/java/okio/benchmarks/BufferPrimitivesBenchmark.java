@@ -0,0 +1,65 @@
+package okio.benchmarks;
+
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a primitive to a buffer and reads it back, so the buffer stays empty between operations.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class BufferPrimitivesBenchmark {
+
+    private final Buffer buffer = new Buffer();
+
+    @Benchmark
+    public byte writeReadByte() throws IOException {
+        buffer.writeByte((byte) 0x7f);
+        return buffer.readByte();
+    }
+
+    @Benchmark
+    public short writeReadShort() throws IOException {
+        buffer.writeShort((short) 0x7f01);
+        return buffer.readShort();
+    }
+
+    @Benchmark
+    public int writeReadInt() throws IOException {
+        buffer.writeInt(0x7f010203);
+        return buffer.readInt();
+    }
+
+    @Benchmark
+    public long writeReadLong() throws IOException {
+        buffer.writeLong(0x7f01020304050607L);
+        return buffer.readLong();
+    }
+
+    @Benchmark
+    public long writeReadLongLe() throws IOException {
+        buffer.writeLongLe(0x7f01020304050607L);
+        return buffer.readLongLe();
+    }
+
+    @Benchmark
+    public long writeReadDecimalLong() throws IOException {
+        buffer.writeDecimalLong(-123456789012345L);
+        return buffer.readDecimalLong();
+    }
+}
@@ -0,0 +1,75 @@
+package okio.benchmarks;
+
+import okio.Buffer;
+import okio.GzipSink;
+import okio.GzipSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compresses and decompresses {@code size} bytes of text. Most of the time is spent in zlib, so
+ * this mostly shows the cost of moving bytes in and out of the deflater and inflater.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class GzipBenchmark {
+
+    @Param({"1024", "1048576"})
+    int size;
+
+    private byte[] text;
+
+    private final Buffer compressed = new Buffer();
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(0);
+        text = new byte[size];
+        for (int i = 0; i < size; i++) {
+            text[i] = (byte) (random.nextInt(8) == 0 ? ' ' : 'a' + random.nextInt(26));
+        }
+        Buffer plain = new Buffer();
+        plain.write(text);
+        GzipSink gzipSink = new GzipSink(compressed);
+        gzipSink.write(plain, plain.size());
+        gzipSink.close();
+    }
+
+    @Benchmark
+    public Buffer gzipSink() throws IOException {
+        Buffer plain = new Buffer();
+        plain.write(text);
+        Buffer result = new Buffer();
+        GzipSink gzipSink = new GzipSink(result);
+        gzipSink.write(plain, plain.size());
+        gzipSink.close();
+        return result;
+    }
+
+    @Benchmark
+    public Buffer gzipSource() throws IOException {
+        GzipSource gzipSource = new GzipSource(compressed.clone());
+        Buffer result = new Buffer();
+        while (gzipSource.read(result, 8192) != -1) {
+        }
+        gzipSource.close();
+        return result;
+    }
+}
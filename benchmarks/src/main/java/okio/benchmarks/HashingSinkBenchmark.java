@@ -0,0 +1,56 @@
+package okio.benchmarks;
+
+import okio.Buffer;
+import okio.ByteString;
+import okio.HashingSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams {@code size} bytes through a hashing sink into a buffer that discards them.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class HashingSinkBenchmark {
+
+    @Param({"1024", "1048576"})
+    int size;
+
+    @Param({"md5", "sha256"})
+    String algorithm;
+
+    private byte[] data;
+
+    private final Buffer sink = new Buffer();
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+    }
+
+    @Benchmark
+    public ByteString hash() throws IOException {
+        HashingSink hashingSink = algorithm.equals("md5") ? HashingSink.md5(sink) : HashingSink.sha256(sink);
+        Buffer source = new Buffer();
+        source.write(data);
+        hashingSink.write(source, source.size());
+        sink.clear();
+        return hashingSink.hash();
+    }
+}
@@ -0,0 +1,64 @@
+package okio.benchmarks;
+
+import okio.Buffer;
+import okio.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans a buffer for a newline, or a multipart boundary, that is only present at its very end, as
+ * when looking for the end of a long line or of a large upload body.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class IndexOfBenchmark {
+
+    @Param({"128", "8192", "1048576"})
+    int size;
+
+    private static final ByteString BOUNDARY =
+            ByteString.encodeUtf8("\r\n------WebKitFormBoundary7MA4YWxkTrZu0gW");
+
+    private final Buffer lines = new Buffer();
+
+    private final Buffer body = new Buffer();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        byte[] text = new byte[size];
+        for (int i = 0; i < size; i++) {
+            text[i] = (byte) ('a' + random.nextInt(26));
+        }
+        lines.write(text, 0, size - 1);
+        lines.writeUtf8("\n");
+        body.write(text, 0, size - BOUNDARY.size());
+        body.write(BOUNDARY);
+    }
+
+    @Benchmark
+    public long indexOfNewline() {
+        return lines.indexOf((byte) '\n');
+    }
+
+    @Benchmark
+    public long indexOfBoundary() {
+        return body.indexOf(BOUNDARY);
+    }
+}
@@ -0,0 +1,105 @@
+package okio.benchmarks;
+
+import okio.Buffer;
+import okio.Pipe;
+import okio.SpscPipe;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One thread writes segments into a pipe while another reads them out. Both ends have a timeout,
+ * so that whichever thread is left blocked when the other stops at the end of an iteration gives
+ * up instead of hanging the run. The {@code transfer} group uses the lock-based {@link Pipe}, the
+ * {@code spscTransfer} group the lock-free {@link SpscPipe}.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Group)
+public class PipeBenchmark {
+
+    private final Pipe pipe = new Pipe(64 * 1024);
+
+    private final SpscPipe spscPipe = new SpscPipe(64 * 1024);
+
+    private final byte[] segment = new byte[8192];
+
+    @Setup
+    public void setup() {
+        pipe.sink().timeout().timeout(100, TimeUnit.MILLISECONDS);
+        pipe.source().timeout().timeout(100, TimeUnit.MILLISECONDS);
+        spscPipe.sink().timeout().timeout(100, TimeUnit.MILLISECONDS);
+        spscPipe.source().timeout().timeout(100, TimeUnit.MILLISECONDS);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadBuffer {
+        final Buffer buffer = new Buffer();
+    }
+
+    @Benchmark
+    @Group("transfer")
+    @GroupThreads(1)
+    public void write(ThreadBuffer threadBuffer) throws IOException {
+        threadBuffer.buffer.write(segment);
+        try {
+            pipe.sink().write(threadBuffer.buffer, segment.length);
+        } catch (InterruptedIOException timedOut) {
+            threadBuffer.buffer.clear();
+        }
+    }
+
+    @Benchmark
+    @Group("transfer")
+    @GroupThreads(1)
+    public long read(ThreadBuffer threadBuffer) throws IOException {
+        try {
+            long result = pipe.source().read(threadBuffer.buffer, segment.length);
+            threadBuffer.buffer.clear();
+            return result;
+        } catch (InterruptedIOException timedOut) {
+            return 0;
+        }
+    }
+
+    @Benchmark
+    @Group("spscTransfer")
+    @GroupThreads(1)
+    public void spscWrite(ThreadBuffer threadBuffer) throws IOException {
+        threadBuffer.buffer.write(segment);
+        try {
+            spscPipe.sink().write(threadBuffer.buffer, segment.length);
+        } catch (InterruptedIOException timedOut) {
+            threadBuffer.buffer.clear();
+        }
+    }
+
+    @Benchmark
+    @Group("spscTransfer")
+    @GroupThreads(1)
+    public long spscRead(ThreadBuffer threadBuffer) throws IOException {
+        try {
+            long result = spscPipe.source().read(threadBuffer.buffer, segment.length);
+            threadBuffer.buffer.clear();
+            return result;
+        } catch (InterruptedIOException timedOut) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package okio.benchmarks;
+
+import okio.Buffer;
+import okio.Segment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes a segment from the pool and recycles it on every operation. Compare the per-thread score
+ * of {@link #singleThread} with {@link #allThreads}: without contention on the pool they match.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class SegmentPoolBenchmark {
+
+    private final Buffer buffer = new Buffer();
+
+    private final byte[] segment = new byte[Segment.SIZE];
+
+    @Benchmark
+    @Threads(1)
+    public void singleThread() throws IOException {
+        takeAndRecycle();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void allThreads() throws IOException {
+        takeAndRecycle();
+    }
+
+    private void takeAndRecycle() throws IOException {
+        buffer.write(segment);
+        buffer.skip(Segment.SIZE);
+    }
+}
@@ -0,0 +1,60 @@
+package okio.benchmarks;
+
+import okio.Buffer;
+import okio.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations that can share segments rather than copy their bytes: copying a range of one buffer
+ * into another, snapshotting a buffer, and moving all of a buffer into another.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SegmentSharingBenchmark {
+
+    @Param({"128", "65536", "1048576"})
+    int size;
+
+    private final Buffer source = new Buffer();
+
+    private final Buffer target = new Buffer();
+
+    @Setup
+    public void setup() {
+        source.write(new byte[size]);
+    }
+
+    @Benchmark
+    public void copyTo() throws IOException {
+        source.copyTo(target, 1, size - 2);
+        target.skip(size - 2);
+    }
+
+    @Benchmark
+    public ByteString snapshot() {
+        return source.snapshot();
+    }
+
+    @Benchmark
+    public void writeAll() throws IOException {
+        target.writeAll(source);
+        source.writeAll(target);
+    }
+}
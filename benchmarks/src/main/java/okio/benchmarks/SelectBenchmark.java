@@ -0,0 +1,52 @@
+package okio.benchmarks;
+
+import okio.Buffer;
+import okio.ByteString;
+import okio.Options;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selects the last of 50 JSON field names, the worst case for trying the options in order.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SelectBenchmark {
+
+    private final Buffer buffer = new Buffer();
+
+    private Options options;
+
+    private ByteString last;
+
+    @Setup
+    public void setup() {
+        ByteString[] fields = new ByteString[50];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = ByteString.encodeUtf8("\"field" + i + "\":");
+        }
+        options = Options.of(fields);
+        last = fields[fields.length - 1];
+    }
+
+    @Benchmark
+    public int selectLast() throws IOException {
+        buffer.write(last);
+        return buffer.select(options);
+    }
+}
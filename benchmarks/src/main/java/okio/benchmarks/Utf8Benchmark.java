@@ -0,0 +1,81 @@
+package okio.benchmarks;
+
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes strings of {@code length} characters drawn from one of three mixes: plain
+ * ASCII, Latin-1 with accented letters (two-byte sequences), and text sprinkled with emoji
+ * (surrogate pairs, four-byte sequences).
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class Utf8Benchmark {
+
+    @Param({"20", "2000", "200000"})
+    int length;
+
+    @Param({"ascii", "latin1", "emoji"})
+    String encoding;
+
+    private final Buffer buffer = new Buffer();
+
+    private String string;
+
+    private long byteCount;
+
+    @Setup
+    public void setup() throws IOException {
+        String alphabet;
+        if (encoding.equals("ascii")) {
+            alphabet = "abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ 0123456789";
+        } else if (encoding.equals("latin1")) {
+            alphabet = "abcdefghijklmnopqrstuvwxyz àáâãäåæçèéêëìíîïñòóôõöøùúûüý";
+        } else if (encoding.equals("emoji")) {
+            alphabet = "abcdefghijklmnopqrstuvwxyz 😀🚀🎉👍";
+        } else {
+            throw new IllegalArgumentException(encoding);
+        }
+        int[] codePoints = alphabet.codePoints().toArray();
+        Random random = new Random(0);
+        StringBuilder result = new StringBuilder();
+        while (result.length() < length) {
+            result.appendCodePoint(codePoints[random.nextInt(codePoints.length)]);
+        }
+        string = result.toString();
+
+        Buffer encoded = new Buffer();
+        encoded.writeUtf8(string);
+        byteCount = encoded.size();
+    }
+
+    @Benchmark
+    public void writeUtf8() throws IOException {
+        buffer.writeUtf8(string);
+        buffer.skip(byteCount);
+    }
+
+    @Benchmark
+    public String writeReadUtf8() throws IOException {
+        buffer.writeUtf8(string);
+        return buffer.readUtf8(byteCount);
+    }
+}
@@ -1,11 +1,10 @@
 package okio;
 
-import com.sun.istack.internal.Nullable;
-
 import java.io.IOException;
 import java.io.InterruptedIOException;
-import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static okio.Util.checkOffsetAndCount;
 
@@ -14,12 +13,33 @@ import static okio.Util.checkOffsetAndCount;
  */
 public class AsyncTimeout extends Timeout {
 
-    private static final long IDLE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
-
     private static final int TIMEOUT_WRITE_SIZE = 64 * 1024;
 
-    private static PriorityQueue<AsyncTimeout> queue;
+    /**
+     * How often the watchdog checks for timeouts while any are armed, from the
+     * {@code okio.timeout.tickMillis} system property. Timeouts fire up to one tick late.
+     */
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, Long.getLong("okio.timeout.tickMillis", 10L)));
+
+    /** Each level of a wheel has 2^WHEEL_BITS slots, each slot spanning 2^WHEEL_BITS slots of the level below. */
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int LEVELS = 4;
+
+    /** Independently locked wheels. A timeout always goes to the same one. */
+    private static final int STRIPE_COUNT = 16;
+
+    /** Ticks are counted from here. */
+    private static final long EPOCH = System.nanoTime();
 
+    /** Where this timeout is linked in its stripe's slots, or -1 if it isn't. Guarded by the stripe's lock. */
+    private int slot = -1;
+    private AsyncTimeout next;
+    private AsyncTimeout prev;
+    /** Links the timeouts that fired in one pass of the watchdog. Used only by the watchdog. */
+    private AsyncTimeout nextFired;
+
+    private final int stripe = System.identityHashCode(this) & (STRIPE_COUNT - 1);
     private boolean inQueue;
     private long timeoutAt;
 
@@ -37,34 +57,16 @@ public class AsyncTimeout extends Timeout {
             return;
         }
         inQueue = true;
-        scheduleTimeout(this, timeoutNanos, hasDeadline);
-    }
-
-    private static synchronized void scheduleTimeout(AsyncTimeout node, long timeoutNanos, boolean hasDeadline) {
-        if (queue == null) {
-            queue = new PriorityQueue<>((o1, o2) -> {
-                if(o1.timeoutAt > o2.timeoutAt){
-                    return 1;
-                }else if(o1.timeoutAt < o2.timeoutAt){
-                    return -1;
-                }else{
-                    return 0;
-                }
-            });
-            new Watchdog().start();
-        }
 
         long now = System.nanoTime();
         if (timeoutNanos != 0 && hasDeadline) {
-            node.timeoutAt = now + Math.min(timeoutNanos, node.getDeadlineNanoTime() - now);
+            timeoutAt = now + Math.min(timeoutNanos, getDeadlineNanoTime() - now);
         } else if (timeoutNanos != 0) {
-            node.timeoutAt = now + timeoutNanos;
-        } else if (hasDeadline) {
-            node.timeoutAt = node.getDeadlineNanoTime();
+            timeoutAt = now + timeoutNanos;
+        } else {
+            timeoutAt = getDeadlineNanoTime();
         }
-
-        queue.add(node);
-        AsyncTimeout.class.notify();
+        Wheel.schedule(this);
     }
 
     public final boolean exit() {
@@ -72,18 +74,190 @@ public class AsyncTimeout extends Timeout {
             return false;
         }
         inQueue = false;
-        return cancelScheduledTimeout(this);
+        return Wheel.cancel(this);
     }
 
-    private static synchronized boolean cancelScheduledTimeout(AsyncTimeout node) {
-        if(queue == null){
-            return true;
+    /** Returns the first tick at or after {@code nanoTime}. */
+    static long tickOf(long nanoTime) {
+        long nanos = nanoTime - EPOCH;
+        if (nanos <= 0) {
+            return 0;
         }
-        if(queue.contains(node)){
-            queue.remove(node);
-            return false;
+        return nanos / TICK_NANOS + (nanos % TICK_NANOS != 0 ? 1 : 0);
+    }
+
+    /**
+     * The armed timeouts, in a hashed hierarchical timing wheel: level {@code n} has a slot for
+     * every 2^(6n) ticks, and a timeout sits in the lowest level whose span reaches its deadline.
+     * When the watchdog comes to a higher-level slot, its timeouts cascade down a level, so arming
+     * and cancelling are O(1) whatever the number of timeouts. The top level wraps; its timeouts
+     * are placed again until they are due.
+     *
+     * <p>Timeouts are spread over {@link #STRIPE_COUNT} such wheels, each with its own lock, so
+     * threads entering and exiting different timeouts rarely contend.
+     */
+    private static final class Wheel {
+        static final Stripe[] STRIPES = new Stripe[STRIPE_COUNT];
+        static final Watchdog WATCHDOG;
+
+        /** True while the watchdog is parked with no timeouts armed. */
+        static volatile boolean idle;
+
+        static {
+            for (int i = 0; i < STRIPE_COUNT; i++) {
+                STRIPES[i] = new Stripe();
+            }
+            WATCHDOG = new Watchdog();
+            WATCHDOG.start();
+        }
+
+        static void schedule(AsyncTimeout node) {
+            Stripe stripe = STRIPES[node.stripe];
+            stripe.lock.lock();
+            try {
+                stripe.schedule(node);
+            } finally {
+                stripe.lock.unlock();
+            }
+            if (idle) {
+                LockSupport.unpark(WATCHDOG);
+            }
+        }
+
+        /** Returns true if {@code node} timed out before it could be cancelled. */
+        static boolean cancel(AsyncTimeout node) {
+            Stripe stripe = STRIPES[node.stripe];
+            stripe.lock.lock();
+            try {
+                if (node.slot == -1) {
+                    return true; // The watchdog took it.
+                }
+                stripe.unlink(node);
+                stripe.count--;
+                return false;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    /** One of the wheels. Everything but {@link #armed} is guarded by {@link #lock}. */
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        /** The heads of the slots' lists, {@link #WHEEL_SIZE} slots per level. */
+        final AsyncTimeout[] slots = new AsyncTimeout[LEVELS * WHEEL_SIZE];
+        /** The next tick to expire. */
+        long currentTick;
+        int count;
+        /** Whether timeouts were left after the last {@link #expire}. Used only by the watchdog. */
+        boolean armed;
+
+        void schedule(AsyncTimeout node) {
+            if (count == 0) {
+                // Nothing is due before now, so there is nothing to catch up on.
+                currentTick = Math.max(currentTick, tickOf(System.nanoTime()));
+            }
+            count++;
+            place(node, currentTick);
+        }
+
+        /** Links {@code node} into the lowest level whose span, seen from {@code tick}, reaches its deadline. */
+        private void place(AsyncTimeout node, long tick) {
+            long due = Math.max(tickOf(node.timeoutAt), tick);
+            int level = 0;
+            while (level < LEVELS - 1 && (due >>> WHEEL_BITS * (level + 1)) != (tick >>> WHEEL_BITS * (level + 1))) {
+                level++;
+            }
+            int index = level * WHEEL_SIZE + ((int) (due >>> WHEEL_BITS * level) & (WHEEL_SIZE - 1));
+            AsyncTimeout head = slots[index];
+            node.slot = index;
+            node.prev = null;
+            node.next = head;
+            if (head != null) {
+                head.prev = node;
+            }
+            slots[index] = node;
+        }
+
+        void unlink(AsyncTimeout node) {
+            if (node.prev != null) {
+                node.prev.next = node.next;
+            } else {
+                slots[node.slot] = node.next;
+            }
+            if (node.next != null) {
+                node.next.prev = node.prev;
+            }
+            node.next = null;
+            node.prev = null;
+            node.slot = -1;
+        }
+
+        /**
+         * Expires every tick up to and including {@code nowTick}. Returns the timeouts that are
+         * due, linked through {@link AsyncTimeout#nextFired} in the order they fell due.
+         */
+        AsyncTimeout expire(long nowTick) {
+            AsyncTimeout fired = null;
+            lock.lock();
+            try {
+                if (count == 0) {
+                    currentTick = Math.max(currentTick, nowTick + 1);
+                }
+                for (; currentTick <= nowTick; currentTick++) {
+                    long tick = currentTick;
+                    // Cascade the levels whose slot starts at this tick, highest first, then expire level 0.
+                    int level = 1;
+                    while (level < LEVELS && (tick & ((1L << WHEEL_BITS * level) - 1)) == 0) {
+                        level++;
+                    }
+                    for (level--; level >= 0; level--) {
+                        fired = expireSlot(level * WHEEL_SIZE + ((int) (tick >>> WHEEL_BITS * level) & (WHEEL_SIZE - 1)), tick, fired);
+                    }
+                }
+                armed = count > 0;
+            } finally {
+                lock.unlock();
+            }
+            // Fired timeouts were pushed on the front; put the earliest first.
+            AsyncTimeout ordered = null;
+            while (fired != null) {
+                AsyncTimeout nextFired = fired.nextFired;
+                fired.nextFired = ordered;
+                ordered = fired;
+                fired = nextFired;
+            }
+            return ordered;
+        }
+
+        private AsyncTimeout expireSlot(int index, long tick, AsyncTimeout fired) {
+            AsyncTimeout node = slots[index];
+            slots[index] = null;
+            while (node != null) {
+                AsyncTimeout next = node.next;
+                node.next = null;
+                node.prev = null;
+                node.slot = -1;
+                if (tickOf(node.timeoutAt) <= tick) {
+                    count--;
+                    node.nextFired = fired;
+                    fired = node;
+                } else {
+                    place(node, tick);
+                }
+                node = next;
+            }
+            return fired;
+        }
+
+        boolean isEmpty() {
+            lock.lock();
+            try {
+                return count == 0;
+            } finally {
+                lock.unlock();
+            }
         }
-        return true;
     }
 
     public final Source source(final Source source) {
@@ -132,59 +306,50 @@ public class AsyncTimeout extends Timeout {
 
         public void run() {
             while (true) {
-                try {
-                    AsyncTimeout timedOut;
-                    synchronized (AsyncTimeout.class) {
-                        timedOut = awaitTimeout();
-                        if (timedOut == null) {
-                            continue;
-                        }else{
-                            timedOut.timedOut();
-                            queue.remove(timedOut);
-                        }
-                        if (queue.isEmpty()) {
-                            queue = null;
-                            return;
-                        }
+                // The last tick that has started; everything due at or before it is late.
+                long nowTick = (System.nanoTime() - EPOCH) / TICK_NANOS;
+                boolean armed = false;
+                for (Stripe stripe : Wheel.STRIPES) {
+                    AsyncTimeout fired = stripe.expire(nowTick);
+                    armed |= stripe.armed;
+                    // Close the timed out resources without holding the lock; that may block.
+                    while (fired != null) {
+                        AsyncTimeout next = fired.nextFired;
+                        fired.nextFired = null;
+                        fired.timedOut();
+                        fired = next;
                     }
-                } catch (InterruptedException e) {
                 }
-            }
-        }
-    }
 
-    static AsyncTimeout awaitTimeout() throws InterruptedException {
-        if(queue == null){
-            return null;
-        }
-        if (queue.isEmpty()) {
-            AsyncTimeout.class.wait(IDLE_TIMEOUT_MILLIS);
-            return queue.isEmpty() ? null : awaitTimeout(); // The situation has changed.
+                if (armed) {
+                    LockSupport.parkNanos(this, EPOCH + (nowTick + 1) * TICK_NANOS - System.nanoTime());
+                } else {
+                    // Park until a timeout is scheduled. Recheck after raising the flag, so a
+                    // timeout scheduled in between isn't missed.
+                    Wheel.idle = true;
+                    if (allEmpty()) {
+                        LockSupport.park(this);
+                    }
+                    Wheel.idle = false;
+                }
+                Thread.interrupted();
+            }
         }
 
-        AsyncTimeout node = queue.peek();
-
-        long waitNanos = node.timeoutAt - System.nanoTime();
-
-        if (waitNanos > 0) {
-            long waitMillis = waitNanos / 1000000L;
-            waitNanos -= (waitMillis * 1000000L);
-            AsyncTimeout.class.wait(waitMillis, (int) waitNanos);
-            return null;
+        private static boolean allEmpty() {
+            for (Stripe stripe : Wheel.STRIPES) {
+                if (!stripe.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
         }
-
-        queue.poll();
-        return node;
     }
 
     public final Sink sink(final Sink sink) {
         return new Sink() {
             @Override
             public void write(Buffer source, long byteCount) throws IOException {
-                for(StackTraceElement element : new Throwable().getStackTrace()){
-                    System.out.println("aynctimeout write " + element);
-                }
-                System.out.println("aynctimeout write " + byteCount);
                 checkOffsetAndCount(source.size(), 0, byteCount);
 
                 while (byteCount > 0L) {
@@ -201,7 +366,6 @@ public class AsyncTimeout extends Timeout {
                     boolean throwOnTimeout = false;
                     enter();
                     try {
-                        System.out.println("aynctimeout sink.write " + toWrite + " " + byteCount);
                         sink.write(source, toWrite);
                         byteCount -= toWrite;
                         throwOnTimeout = true;
@@ -259,7 +423,7 @@ public class AsyncTimeout extends Timeout {
         return newTimeoutException(cause);
     }
 
-    protected IOException newTimeoutException(@Nullable IOException cause) {
+    protected IOException newTimeoutException(IOException cause) {
         InterruptedIOException e = new InterruptedIOException("timeout");
         if (cause != null) {
             e.initCause(cause);
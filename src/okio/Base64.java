@@ -129,6 +129,60 @@ final class Base64 {
     return encode(in, URL_MAP);
   }
 
+  public static String encode(SegmentedByteString in) {
+    return encode(in, MAP);
+  }
+
+  public static String encodeUrl(SegmentedByteString in) {
+    return encode(in, URL_MAP);
+  }
+
+  /** Encodes {@code in} one segment at a time, carrying a partial group across boundaries. */
+  private static String encode(SegmentedByteString in, byte[] map) {
+    byte[] out = new byte[(in.size() + 2) / 3 * 4];
+    int index = 0;
+    int word = 0;
+    int wordBytes = 0;
+    byte[][] segments = in.segments;
+    int[] directory = in.directory;
+    for (int s = 0, offset = 0; s < segments.length; s++) {
+      byte[] data = segments[s];
+      int pos = directory[segments.length + s];
+      int limit = pos + directory[s] - offset;
+      offset = directory[s];
+      for (int i = pos; i < limit; i++) {
+        word = (word << 8) | (data[i] & 0xff);
+        if (++wordBytes == 3) {
+          out[index++] = map[(word >> 18) & 0x3f];
+          out[index++] = map[(word >> 12) & 0x3f];
+          out[index++] = map[(word >> 6) & 0x3f];
+          out[index++] = map[word & 0x3f];
+          word = 0;
+          wordBytes = 0;
+        }
+      }
+    }
+    switch (wordBytes) {
+      case 1:
+        out[index++] = map[(word >> 2) & 0x3f];
+        out[index++] = map[(word << 4) & 0x3f];
+        out[index++] = '=';
+        out[index++] = '=';
+        break;
+      case 2:
+        out[index++] = map[(word >> 10) & 0x3f];
+        out[index++] = map[(word >> 4) & 0x3f];
+        out[index++] = map[(word << 2) & 0x3f];
+        out[index++] = '=';
+        break;
+    }
+    try {
+      return new String(out, "US-ASCII");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
   private static String encode(byte[] in, byte[] map) {
     int length = (in.length + 2) / 3 * 4;
     byte[] out = new byte[length];
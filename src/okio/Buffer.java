@@ -1,7 +1,5 @@
 package okio;
 
-import org.omg.PortableInterceptor.LOCATION_FORWARD;
-
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
@@ -10,10 +8,9 @@ import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.stream.IntStream;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.fail;
+import static okio.Util.UTF_8;
+import static okio.Util.checkArraySize;
 
 /**
  * Created by pc on 2018/1/20.
@@ -22,58 +19,22 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
 
     private static final byte[] DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
 
+    /** Reads at least this large are returned as a snapshot of the segments instead of a copy. */
+    static final int SEGMENTING_THRESHOLD = 4096;
+
     SegmentList segmentList = new SegmentList();
 
     public Buffer(SegmentList segmentList) {
-        this.segmentList = new SegmentList(segmentList);
+        this.segmentList = segmentList;
     }
 
     public Buffer() {
 
     }
 
-    long totalWriteTime = 0;
-    long writeByteTime = 0;
-    final byte[] cpBytes = new byte[6];
-
     @Override
-    public Buffer writeUtf8(String a) {
-//        long start = System.currentTimeMillis();
-        a.codePoints().forEach((cp) -> {
-            if (cp < 0) {
-                throw new IllegalStateException("No negative code point allowed");
-            } else if (cp < 0x80) {
-//                long writeByteStart = System.currentTimeMillis();
-                Buffer.this.writeByte((byte) cp);
-//                writeByteTime += System.currentTimeMillis() - writeByteStart;
-            } else {
-                int bi = 0;
-                int lastPrefix = 0xC0;
-                int lastMask = 0x1F;
-                for (;;) {
-                    int b = 0x80 | (cp & 0x3F);
-                    cpBytes[bi] = (byte)b;
-                    ++bi;
-                    cp >>= 6;
-                    if ((cp & ~lastMask) == 0) {
-                        cpBytes[bi] = (byte) (lastPrefix | cp);
-                        ++bi;
-                        break;
-                    }
-                    lastPrefix = 0x80 | (lastPrefix >> 1);
-                    lastMask >>= 1;
-                }
-                while (bi > 0) {
-                    --bi;
-//                    long writeByteStart = System.currentTimeMillis();
-                    Buffer.this.writeByte((byte) cpBytes[bi]);
-//                    writeByteTime += System.currentTimeMillis() - writeByteStart;
-                }
-            }
-        });
-//        totalWriteTime += System.currentTimeMillis() - start;
-//        write(bytes);
-
+    public Buffer writeUtf8(String string) {
+        writeUtf8(string, 0, string.length());
         return this;
     }
 
@@ -196,16 +157,9 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
     public long writeAll(Source source) throws IOException {
         if (source == null) throw new IllegalArgumentException("source == null");
         long result = 0;
-        while(true){
-            if(source.read(this, 1) <= 0){
-                break;
-            }else{
-                result++;
-            }
+        for (long readCount; (readCount = source.read(this, Segment.SIZE)) > 0; ) {
+            result += readCount;
         }
-//        if(result == 0){
-//            return -1;
-//        }
         return result;
     }
 
@@ -272,13 +226,86 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
 
     @Override
     public Buffer write(ByteString byteString) {
-        segmentList.write(byteString.getData());
+        byteString.write(this);
         return this;
     }
 
+    /**
+     * Encodes the chars of {@code string} in {@code [startIndex..endIndex)} as UTF-8 straight into
+     * the tail segment. Runs of ASCII are copied in a tight loop until the segment fills up; longer
+     * sequences are always written whole into one segment. A surrogate that isn't part of a valid
+     * pair is written as {@code '?'}, the same as {@link String#getBytes(Charset)} does.
+     */
     @Override
     public void writeUtf8(String string, int startIndex, int endIndex) {
-        segmentList.write(string.substring(startIndex, endIndex).getBytes());
+        if (string == null) {
+            throw new IllegalArgumentException("string == null");
+        }
+        if (startIndex < 0) {
+            throw new IllegalArgumentException("startIndex < 0: " + startIndex);
+        }
+        if (endIndex < startIndex) {
+            throw new IllegalArgumentException("endIndex < startIndex: " + endIndex + " < " + startIndex);
+        }
+        if (endIndex > string.length()) {
+            throw new IllegalArgumentException("endIndex > string.length: " + endIndex + " > " + string.length());
+        }
+
+        for (int i = startIndex; i < endIndex;) {
+            int c = string.charAt(i);
+
+            if (c < 0x80) {
+                Segment tail = segmentList.getWritableSegment(1);
+                byte[] data = tail.data;
+                int segmentOffset = tail.rear - i;
+                int runLimit = Math.min(endIndex, Segment.SIZE - segmentOffset);
+
+                // Emit a 7-bit character with 1 byte, and keep going while the next ones are too.
+                data[segmentOffset + i++] = (byte) c;
+                while (i < runLimit) {
+                    c = string.charAt(i);
+                    if (c >= 0x80) break;
+                    data[segmentOffset + i++] = (byte) c;
+                }
+                tail.rear = i + segmentOffset;
+
+            } else if (c < 0x800) {
+                // Emit a 11-bit character with 2 bytes.
+                Segment tail = segmentList.getWritableSegment(2);
+                tail.data[tail.rear] = (byte) (c >> 6 | 0xc0);
+                tail.data[tail.rear + 1] = (byte) (c & 0x3f | 0x80);
+                tail.rear += 2;
+                i++;
+
+            } else if (c < 0xd800 || c > 0xdfff) {
+                // Emit a 16-bit character with 3 bytes.
+                Segment tail = segmentList.getWritableSegment(3);
+                tail.data[tail.rear] = (byte) (c >> 12 | 0xe0);
+                tail.data[tail.rear + 1] = (byte) (c >> 6 & 0x3f | 0x80);
+                tail.data[tail.rear + 2] = (byte) (c & 0x3f | 0x80);
+                tail.rear += 3;
+                i++;
+
+            } else {
+                // c is a surrogate. Check that it's a leading surrogate followed by a trailing one.
+                int low = i + 1 < endIndex ? string.charAt(i + 1) : 0;
+                if (c > 0xdbff || low < 0xdc00 || low > 0xdfff) {
+                    writeByte((byte) '?');
+                    i++;
+                    continue;
+                }
+
+                // Emit a 21-bit character with 4 bytes.
+                int codePoint = 0x010000 + ((c & ~0xd800) << 10 | low & ~0xdc00);
+                Segment tail = segmentList.getWritableSegment(4);
+                tail.data[tail.rear] = (byte) (codePoint >> 18 | 0xf0);
+                tail.data[tail.rear + 1] = (byte) (codePoint >> 12 & 0x3f | 0x80);
+                tail.data[tail.rear + 2] = (byte) (codePoint >> 6 & 0x3f | 0x80);
+                tail.data[tail.rear + 3] = (byte) (codePoint & 0x3f | 0x80);
+                tail.rear += 4;
+                i += 2;
+            }
+        }
     }
 
     @Override
@@ -292,16 +319,17 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
     }
 
     @Override
-    public void write(Buffer clone, long byteCount) throws IOException {
-        clone.read(this, Math.min(clone.size(), byteCount));
+    public void write(Buffer source, long byteCount) throws IOException {
+        segmentList.write(source.segmentList, Math.min(source.size(), byteCount));
     }
 
     @Override
-    public String readUtf8(int length) {
-        if(segmentList.available() < length){
+    public String readUtf8(long byteCount) {
+        int count = checkArraySize(byteCount);
+        if(segmentList.available() < count){
             throw new ArrayIndexOutOfBoundsException();
         }
-        return new String(readByteArray(length));
+        return segmentList.readUtf8(count);
     }
 
     @Override
@@ -395,9 +423,21 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
         return this;
     }
 
+    /** Does nothing: a buffer has nowhere to emit to. */
+    @Override
+    public Buffer emit() {
+        return this;
+    }
+
+    /** Does nothing: a buffer has nowhere to emit to. */
     @Override
-    public int readAll(Sink sink) throws IOException {
-        int available = segmentList.available();
+    public Buffer emitCompleteSegments() {
+        return this;
+    }
+
+    @Override
+    public long readAll(Sink sink) throws IOException {
+        long available = segmentList.available();
         if(available == 0){
             return 0;
         }
@@ -425,14 +465,14 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
 
     @Override
     public int read(byte[] sink) {
-        int result = Math.min(segmentList.available(), sink.length);
+        int result = (int) Math.min(segmentList.available(), sink.length);
         segmentList.read(sink);
         return result;
     }
 
     @Override
     public byte[] readByteArray() {
-        byte[] bytes = new byte[segmentList.available()];
+        byte[] bytes = new byte[checkArraySize(segmentList.available())];
         segmentList.read(bytes);
         return bytes;
     }
@@ -443,65 +483,86 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
     }
 
     @Override
-    public byte[] readByteArray(int count) {
-        byte[] bytes = new byte[count];
+    public byte[] readByteArray(long byteCount) {
+        byte[] bytes = new byte[checkArraySize(byteCount)];
         segmentList.read(bytes);
         return bytes;
     }
 
     @Override
     public ByteString readByteString() {
-        return new ByteString(readByteArray());
+        return readByteString(size());
     }
 
     @Override
-    public ByteString readByteString(int count) {
-        return new ByteString(readByteArray(count));
+    public ByteString readByteString(long byteCount) {
+        if (byteCount >= SEGMENTING_THRESHOLD && byteCount <= size()) {
+            ByteString result = snapshot(checkArraySize(byteCount));
+            segmentList.remove(byteCount);
+            return result;
+        }
+        return new ByteString(readByteArray(byteCount));
     }
 
     @Override
-    public String readString(int count, Charset charset) {
-        return new ByteString(readByteArray(count)).toString(charset);
+    public String readString(long byteCount, Charset charset) {
+        if(charset.equals(UTF_8)){
+            return readUtf8(byteCount);
+        }
+        return new ByteString(readByteArray(byteCount)).toString(charset);
     }
 
     @Override
     public String readString(Charset charset) {
+        if(charset.equals(UTF_8)){
+            return segmentList.readUtf8(checkArraySize(segmentList.available()));
+        }
         return new ByteString(readByteArray()).toString(charset);
     }
 
     @Override
-    public int indexOf(byte target) {
-        return segmentList.indexOf(target, 0, segmentList.available());
+    public long indexOf(byte target) {
+        return segmentList.indexOf(target, 0, Long.MAX_VALUE);
     }
 
     @Override
-    public int indexOf(byte target, int fromIndex) {
-        return segmentList.indexOf(target, fromIndex, segmentList.available());
+    public long indexOf(byte target, long fromIndex) {
+        return segmentList.indexOf(target, fromIndex, Long.MAX_VALUE);
     }
 
     @Override
-    public int indexOf(byte target, int fromIndex, int toIndex) {
+    public long indexOf(byte target, long fromIndex, long toIndex) {
         return segmentList.indexOf(target, fromIndex, toIndex);
     }
 
     @Override
-    public int indexOf(ByteString byteString) {
+    public long indexOf(ByteString byteString) {
         return indexOf(byteString, 0);
     }
 
     @Override
-    public int indexOf(ByteString byteString, int fromIndex) {
+    public long indexOf(ByteString byteString, long fromIndex) {
         return segmentList.indexOf(byteString, fromIndex);
     }
 
     @Override
-    public int indexOfElement(ByteString byteString){
+    public long indexOfElement(ByteString byteString){
         return indexOfElement(byteString, 0);
     }
 
     @Override
-    public int indexOfElement(ByteString byteString, int fromIndex) {
-        return segmentList.indexOfElement(byteString, fromIndex);
+    public long indexOfElement(ByteString byteString, long fromIndex) {
+        return segmentList.indexOfElement(ByteSet.of(byteString), fromIndex);
+    }
+
+    @Override
+    public long indexOfElement(ByteSet byteSet) {
+        return indexOfElement(byteSet, 0);
+    }
+
+    @Override
+    public long indexOfElement(ByteSet byteSet, long fromIndex) {
+        return segmentList.indexOfElement(byteSet, fromIndex);
     }
 
     @Override
@@ -620,19 +681,19 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
     }
 
     @Override
-    public boolean rangeEquals(int offset, ByteString byteString) {
-        return rangeEquals(offset, byteString, 0, byteString.getData().length);
+    public boolean rangeEquals(long offset, ByteString byteString) {
+        return rangeEquals(offset, byteString, 0, byteString.size());
     }
 
     @Override
-    public boolean rangeEquals(int offset, ByteString bytes, int bytesOffset, int byteCount) {
-        if(bytesOffset < 0 || byteCount <0){
+    public boolean rangeEquals(long offset, ByteString bytes, int bytesOffset, int byteCount) {
+        if(offset < 0 || bytesOffset < 0 || byteCount <0){
             return false;
         }
-        if(byteCount > bytes.getData().length - bytesOffset){
+        if(byteCount > bytes.size() - bytesOffset){
             return false;
         }
-        if(!request(offset + byteCount)){
+        if(size() - offset < byteCount){
             return false;
         }
         return rangeEqualsChecked(offset, bytes, bytesOffset, byteCount);
@@ -640,66 +701,28 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
 
     @Override
     public int select(Options options) throws IOException {
-        Segment firstSegment = null;
-        if(segmentList.has(1)){
-            firstSegment = segmentList.getFirst();
-        }else {
-            return options.indexOf(ByteString.EMPTY);
-        }
-
-        ByteString[] byteStrings = options.byteStrings;
-        for (int i = 0, listSize = byteStrings.length; i < listSize; i++) {
-            ByteString byteString = byteStrings[i];
-            if (size() >= byteString.getData().length &&
-                    rangeEquals(firstSegment, firstSegment.front, byteString, 0, byteString.getData().length)) {
-                skip(byteString.getData().length);
-                return i;
-            }
+        int index = selectPrefix(options, false);
+        if (index == -1) {
+            return -1;
         }
-        return -1;
+        skip(options.byteStrings[index].size());
+        return index;
     }
 
-    int selectPrefix(Options options) {
-        Segment s = null;
-        if(segmentList.has(1)){
-            s = segmentList.getFirst();
-        }
-        ByteString[] byteStrings = options.byteStrings;
-        for (int i = 0, listSize = byteStrings.length; i < listSize; i++) {
-            ByteString b = byteStrings[i];
-            int bytesLimit = (int) Math.min(size(), b.getData().length);
-            if (bytesLimit == 0 || rangeEquals(s, s.front, b, 0, bytesLimit)) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-    private boolean rangeEquals(Segment segment, int segmentFront, ByteString bytes, int bytesOffset, int bytesLimit) {
-        int segmentRear = segment.rear;
-        byte[] data = segment.data;
-        for (int i = bytesOffset; i < bytesLimit; ) {
-            if (segmentFront == segmentRear) {
-                segment = segment.next;
-                data = segment.data;
-                segmentFront = segment.front;
-                segmentRear = segment.rear;
-            }
-            if (data[segmentFront] != bytes.getByte(i)) {
-                return false;
-            }
-            segmentFront++;
-            i++;
-        }
-        return true;
+    /**
+     * Returns the index of the option that the bytes at the front of this buffer select, or -1.
+     * If {@code truncated}, returns -2 when more bytes could select an earlier-listed option.
+     */
+    int selectPrefix(Options options, boolean truncated) {
+        return segmentList.selectPrefix(options, truncated);
     }
 
-    boolean rangeEqualsChecked(int offset, ByteString bytes, int bytesOffset, int byteCount) {
-        for(int i = offset; i < offset + byteCount; i++){
-            if(i - offset + bytesOffset >= bytes.getData().length){
+    boolean rangeEqualsChecked(long offset, ByteString bytes, int bytesOffset, int byteCount) {
+        for(int i = 0; i < byteCount; i++){
+            if(bytesOffset + i >= bytes.size()){
                 return false;
             }
-            if(getByte(i) != bytes.getData()[i - offset + bytesOffset]){
+            if(getByte(offset + i) != bytes.getByte(bytesOffset + i)){
                 return false;
             }
         }
@@ -708,24 +731,19 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
 
     @Override
     public String readUtf8() throws IOException {
-        byte[] bytes = new byte[segmentList.available()];
-        segmentList.read(bytes);
-        return new String(bytes);
+        return segmentList.readUtf8(checkArraySize(segmentList.available()));
     }
 
     @Override
     public long read(Buffer data, long length) throws IOException {
-        int available = segmentList.available();
+        long available = segmentList.available();
         if(length > available){
             length = available;
         }
         if(length == 0){
             return -1;
         }
-        // TODO
-        byte[] bytes = new byte[(int) length];
-        segmentList.read(bytes);
-        data.write(bytes);
+        data.write(this, length);
         return length;
     }
 
@@ -743,21 +761,16 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
         return Timeout.NONE;
     }
 
-    public int size() {
+    public long size() {
         return segmentList.available();
     }
 
     public String pop(long length) {
-        int available = segmentList.available();
-        if(length > segmentList.available()){
+        long available = segmentList.available();
+        if(length > available){
             length = available;
         }
-        // TODO
-        byte[] bytes = new byte[(int) length];
-        segmentList.read(bytes);
-        String result = new String(bytes);
-        remove(length);
-        return result;
+        return segmentList.readUtf8(checkArraySize(length));
     }
 
     public byte getByte(long index) {
@@ -781,46 +794,7 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
     }
 
     public void copyTo(Buffer target, long startIndex, long length) {
-        if(!segmentList.has(1)){
-            return;
-        }
-        Segment segment = segmentList.getFirst();
-        Segment last = segmentList.getLast();
-        long skipped = 0;
-        long written = 0;
-        while(segment != null){
-            if(skipped < startIndex) {
-                if (skipped + (segment.rear - segment.front) < startIndex) {
-                    skipped += segment.rear - segment.front;
-                } else {
-                    long copyStart = startIndex - skipped + segment.front;
-                    long copyLength = Math.min(segment.rear - segment.front - startIndex + skipped, length);
-                    skipped = startIndex;
-                    written += copyLength;
-                    target.write(segment.data, (int) copyStart, (int) copyLength);
-                }
-            }else if(written < length){
-                if (written + (segment.rear - segment.front) < length) {
-                    written += segment.rear - segment.front;
-                    target.append(SegmentPool.getSegment(segment));
-                } else {
-                    long copyLength = Math.min(segment.rear - segment.front, length - written);
-                    target.write(segment.data, segment.front, (int) copyLength);
-                    break;
-                }
-            }else{
-                break;
-            }
-            if(segment == last){
-                return;
-            }else{
-                segment = segment.next;
-            }
-        }
-    }
-
-    private void append(Segment next) {
-        segmentList.append(next);
+        segmentList.copyTo(target.segmentList, startIndex, length);
     }
 
     @Override
@@ -838,61 +812,57 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
         return segmentList != null ? segmentList.hashCode() : 0;
     }
 
-    public void readFrom(InputStream in, int count) throws IOException {
-        for (int i = 0; i < count; i++) {
-            segmentList.write((byte) in.read());
-        }
+    /** Reads {@code byteCount} bytes from {@code in}, throwing if it is exhausted first. */
+    public void readFrom(InputStream in, long byteCount) throws IOException {
+        if (in == null) throw new IllegalArgumentException("in == null");
+        if (byteCount < 0) throw new IllegalArgumentException("byteCount < 0: " + byteCount);
+        segmentList.readFrom(in, byteCount, false);
     }
 
+    /** Reads from {@code in} until it is exhausted. */
     public void readFrom(InputStream in) throws IOException {
-        while (true){
-            int read = in.read();
-            if(read == -1){
-                return;
-            }
-            segmentList.write((byte) read);
-        }
+        if (in == null) throw new IllegalArgumentException("in == null");
+        segmentList.readFrom(in, Long.MAX_VALUE, true);
     }
 
-    public void writeTo(ByteArrayOutputStream out, int length) {
-        for(int i = 0; i < length; i++){
-            if(!segmentList.has(1)){
-                return;
-            }
-            out.write(segmentList.read());
-        }
+    /** Writes {@code byteCount} bytes to {@code out} and removes them from this buffer. */
+    public void writeTo(OutputStream out, long byteCount) throws IOException {
+        if (out == null) throw new IllegalArgumentException("out == null");
+        segmentList.writeTo(out, byteCount);
     }
 
-    public void writeTo(ByteArrayOutputStream out) throws IOException {
-        byte[] bytes = new byte[segmentList.available()];
-        segmentList.read(bytes);
-        out.write(bytes);
+    public void writeTo(OutputStream out) throws IOException {
+        writeTo(out, size());
     }
 
-    public void copyTo(ByteArrayOutputStream out) {
-        int available = segmentList.available();
-        for(int i = 0; i < available; i++){
-            out.write(segmentList.getByte(i));
-        }
+    /** Writes {@code byteCount} bytes starting at {@code offset} to {@code out}, leaving them here. */
+    public void copyTo(OutputStream out, long offset, long byteCount) throws IOException {
+        if (out == null) throw new IllegalArgumentException("out == null");
+        segmentList.copyTo(out, offset, byteCount);
     }
 
-    public void copyTo(ByteArrayOutputStream out, int startIndex, int length) {
-        int available = segmentList.available();
-        for(long i = startIndex; i < startIndex + length && i < available; i++){
-            out.write(segmentList.getByte(i));
-        }
+    public void copyTo(OutputStream out) throws IOException {
+        copyTo(out, 0, size());
     }
 
     public Segment writableSegment(int size) {
         return segmentList.getWritableSegment(size);
     }
 
+    /**
+     * Returns an immutable copy of this buffer as a byte string. The segments are shared with the
+     * returned string rather than copied, so this is cheap even for large buffers.
+     */
     public ByteString snapshot() {
-        byte[] bytes = new byte[segmentList.available()];
-        for(int i = 0; i < bytes.length; i++){
-            bytes[i] = segmentList.getByte(i);
+        return snapshot(checkArraySize(size()));
+    }
+
+    /** Returns an immutable copy of the first {@code byteCount} bytes of this buffer. */
+    public ByteString snapshot(int byteCount) {
+        if (byteCount == 0) {
+            return ByteString.EMPTY;
         }
-        return new ByteString(bytes);
+        return new SegmentedByteString(segmentList, byteCount);
     }
 
     /** Returns the 128-bit MD5 hash of this buffer. */
@@ -918,11 +888,13 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
     private ByteString digest(String algorithm) {
         try {
             MessageDigest messageDigest = MessageDigest.getInstance(algorithm);
-            if (segmentList.getFirst() != null) {
-                messageDigest.update(segmentList.getFirst().data, segmentList.getFirst().front, segmentList.getFirst().rear - segmentList.getFirst().front);
-                for (Segment s = segmentList.getFirst().next; s != null; s = s.next) {
+            Segment head = segmentList.getFirst();
+            if (head != null) {
+                Segment s = head;
+                do {
                     messageDigest.update(s.data, s.front, s.rear - s.front);
-                }
+                    s = s.next;
+                } while (s != head);
             }
             return ByteString.of(messageDigest.digest());
         } catch (NoSuchAlgorithmException e) {
@@ -949,11 +921,13 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
         try {
             Mac mac = Mac.getInstance(algorithm);
             mac.init(new SecretKeySpec(key.toByteArray(), algorithm));
-            if (segmentList.getFirst() != null) {
-                mac.update(segmentList.getFirst().data, segmentList.getFirst().front, segmentList.getFirst().rear - segmentList.getFirst().front);
-                for (Segment s = segmentList.getFirst().next; s != null; s = s.next) {
+            Segment head = segmentList.getFirst();
+            if (head != null) {
+                Segment s = head;
+                do {
                     mac.update(s.data, s.front, s.rear - s.front);
-                }
+                    s = s.next;
+                } while (s != head);
             }
             return ByteString.of(mac.doFinal());
         } catch (NoSuchAlgorithmException e) {
@@ -973,15 +947,15 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
 
     @Override
     public String readUtf8LineStrict() throws IOException {
-        return readUtf8LineStrict(Integer.MAX_VALUE);
+        return readUtf8LineStrict(Long.MAX_VALUE);
     }
 
     @Override
-    public String readUtf8LineStrict(int limit) throws IOException {
+    public String readUtf8LineStrict(long limit) throws IOException {
         if (limit < 0) {
             throw new IllegalArgumentException("limit < 0: " + limit);
         }
-        int scanLength = limit == Integer.MAX_VALUE ? Integer.MAX_VALUE : limit + 1;
+        long scanLength = limit == Long.MAX_VALUE ? Long.MAX_VALUE : limit + 1;
         long newline = indexOf((byte) '\n', 0, scanLength);
         if (newline != -1) {
             return readUtf8Line(newline);
@@ -1006,22 +980,14 @@ public class Buffer implements BufferedSource, BufferedSink, Cloneable {
 
     String readUtf8Line(long newline) throws IOException {
         if (newline > 0 && getByte(newline - 1) == '\r') {
-            String result = readUtf8((int) (newline - 1));
+            String result = readUtf8(newline - 1);
             skip(2);
             return result;
 
         } else {
-            String result = readUtf8((int) newline);
+            String result = readUtf8(newline);
             skip(1);
             return result;
         }
     }
-
-    public long getTotalWriteTime() {
-        return totalWriteTime;
-    }
-
-    public long getSegmentListWriteTime() {
-        return segmentList.totalWriteTime;
-    }
 }
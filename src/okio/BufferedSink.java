@@ -43,5 +43,11 @@ public interface BufferedSink extends Sink {
 
     BufferedSink writeHexadecimalUnsignedLong(long value) throws IOException;
 
+    /** Writes all buffered bytes to the underlying sink, without flushing it. */
+    BufferedSink emit() throws IOException;
+
+    /** Writes the buffered bytes that fill complete segments to the underlying sink. */
+    BufferedSink emitCompleteSegments() throws IOException;
+
     Buffer buffer();
 }
@@ -11,7 +11,7 @@ import java.nio.charset.Charset;
 public interface BufferedSource extends Source {
 
     String readUtf8() throws IOException;
-    String readUtf8(int length) throws IOException;
+    String readUtf8(long byteCount) throws IOException;
 
     byte readByte() throws IOException;
 
@@ -33,7 +33,7 @@ public interface BufferedSource extends Source {
 
     Buffer buffer();
 
-    int readAll(Sink sink) throws IOException;
+    long readAll(Sink sink) throws IOException;
 
     void readFully(Buffer sink, long length) throws IOException;
 
@@ -45,29 +45,37 @@ public interface BufferedSource extends Source {
 
     int read(byte[] sink, int offset, int byteCount) throws IOException;
 
-    byte[] readByteArray(int count) throws IOException;
+    byte[] readByteArray(long byteCount) throws IOException;
 
     ByteString readByteString() throws IOException;
 
-    ByteString readByteString(int count) throws IOException;
+    ByteString readByteString(long byteCount) throws IOException;
 
-    String readString(int count, Charset charset) throws IOException;
+    String readString(long byteCount, Charset charset) throws IOException;
 
     String readString(Charset charset) throws IOException;
 
-    int indexOf(byte b) throws IOException;
+    long indexOf(byte b) throws IOException;
 
-    int indexOf(byte b, int fromIndex) throws IOException;
+    long indexOf(byte b, long fromIndex) throws IOException;
 
-    int indexOf(byte b, int fromIndex, int toIndex) throws IOException;
+    long indexOf(byte b, long fromIndex, long toIndex) throws IOException;
 
-    int indexOf(ByteString byteString) throws IOException;
+    long indexOf(ByteString byteString) throws IOException;
 
-    int indexOf(ByteString byteString, int fromIndex) throws IOException;
+    long indexOf(ByteString byteString, long fromIndex) throws IOException;
 
-    int indexOfElement(ByteString byteString) throws IOException;
+    long indexOfElement(ByteString byteString) throws IOException;
 
-    int indexOfElement(ByteString byteString, int index) throws IOException;
+    long indexOfElement(ByteString byteString, long fromIndex) throws IOException;
+
+    /**
+     * Returns the index of the first byte in this source that is in {@code byteSet}, or -1 if the
+     * source is exhausted first. Reuse the set across calls; the search itself allocates nothing.
+     */
+    long indexOfElement(ByteSet byteSet) throws IOException;
+
+    long indexOfElement(ByteSet byteSet, long fromIndex) throws IOException;
 
     boolean request(long count) throws IOException;
 
@@ -79,13 +87,13 @@ public interface BufferedSource extends Source {
 
     long readDecimalLong() throws IOException;
 
-    boolean rangeEquals(int offset, ByteString byteString) throws IOException;
+    boolean rangeEquals(long offset, ByteString byteString) throws IOException;
 
-    boolean rangeEquals(int offset, ByteString byteString, int start, int end) throws IOException;
+    boolean rangeEquals(long offset, ByteString byteString, int start, int end) throws IOException;
 
     String readUtf8LineStrict() throws IOException;
 
-    String readUtf8LineStrict(int limit) throws IOException;
+    String readUtf8LineStrict(long limit) throws IOException;
 
     int select(Options options) throws IOException;
 
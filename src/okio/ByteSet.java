@@ -0,0 +1,37 @@
+package okio;
+
+/**
+ * An immutable set of byte values, for use with {@link BufferedSource#indexOfElement(ByteSet)}.
+ * Membership is one bit in a 256-bit table, so testing a byte is a shift and a mask. Build a set
+ * once and reuse it for every search.
+ */
+public final class ByteSet {
+
+    private final long[] bits;
+
+    private ByteSet(long[] bits) {
+        this.bits = bits;
+    }
+
+    public static ByteSet of(ByteString byteString) {
+        long[] bits = new long[4];
+        for (int i = 0, size = byteString.size(); i < size; i++) {
+            int b = byteString.getByte(i) & 0xff;
+            bits[b >>> 6] |= 1L << b;
+        }
+        return new ByteSet(bits);
+    }
+
+    public static ByteSet of(byte... bytes) {
+        return of(new ByteString(bytes));
+    }
+
+    public boolean contains(byte b) {
+        int i = b & 0xff;
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    public boolean isEmpty() {
+        return (bits[0] | bits[1] | bits[2] | bits[3]) == 0;
+    }
+}
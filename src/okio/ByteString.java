@@ -1,10 +1,7 @@
 package okio;
 
-import test.TestUtil;
-
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
-import javax.xml.bind.DatatypeConverter;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
@@ -37,12 +34,17 @@ public class ByteString implements Serializable, Comparable<ByteString> {
         return new String(data);
     }
 
+    /** Returns the number of bytes in this ByteString. */
+    public int size() {
+        return data.length;
+    }
+
     public String toString(Charset charset) {
         return new String(data, charset);
     }
 
     public static ByteString encodeUtf8(String string) {
-        return new ByteString(string.getBytes(TestUtil.UTF_8));
+        return new ByteString(string.getBytes(Charset.forName("UTF-8")));
     }
 
     public byte[] getData() {
@@ -82,18 +84,18 @@ public class ByteString implements Serializable, Comparable<ByteString> {
 
     @Override
     public String toString() {
-        if(data == null || data.length == 0){
+        if(size() == 0){
             return "[size=0]";
         }
-        String string = new String(data);
+        String string = utf8();
         string = string.substring(0, Math.min(64, string.length()))
                 .replace("\\", "\\\\")
                 .replace("\n", "\\n")
                 .replace("\r", "\\r");
         if(containsReplacement(string)){
-            return data.length <= 64
+            return size() <= 64
                     ? "[hex=" + hex() + "]"
-                    : "[size=" + data.length + " hex=" + substring(0, 64).hex() + "…]";
+                    : "[size=" + size() + " hex=" + substring(0, 64).hex() + "…]";
         }
         return "[text=" + string + ']';
     }
@@ -112,11 +114,11 @@ public class ByteString implements Serializable, Comparable<ByteString> {
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
+        if (!(o instanceof ByteString)) return false;
 
         ByteString that = (ByteString) o;
 
-        return Arrays.equals(data, that.data);
+        return that.size() == data.length && that.rangeEquals(0, data, 0, data.length);
     }
 
     @Override
@@ -136,34 +138,40 @@ public class ByteString implements Serializable, Comparable<ByteString> {
         return new ByteString(byteBuffer.array(), byteBuffer.position(), byteBuffer.limit() - byteBuffer.position());
     }
 
+    /**
+     * Returns true if the bytes of this in {@code [offset..offset+byteCount)} equal the bytes of
+     * {@code other} in {@code [otherOffset..otherOffset+byteCount)}. Returns false if either range is
+     * out of bounds.
+     */
+    public boolean rangeEquals(int offset, ByteString other, int otherOffset, int byteCount) {
+        return other.rangeEquals(otherOffset, this.data, offset, byteCount);
+    }
+
+    /**
+     * Returns true if the bytes of this in {@code [offset..offset+byteCount)} equal the bytes of
+     * {@code other} in {@code [otherOffset..otherOffset+byteCount)}. Returns false if either range is
+     * out of bounds.
+     */
+    public boolean rangeEquals(int offset, byte[] other, int otherOffset, int byteCount) {
+        return offset >= 0 && offset <= data.length - byteCount
+                && otherOffset >= 0 && otherOffset <= other.length - byteCount
+                && arrayRangeEquals(data, offset, other, otherOffset, byteCount);
+    }
+
     public boolean startsWith(ByteString byteString) {
-        return startsWith(byteString.getData());
+        return rangeEquals(0, byteString, 0, byteString.size());
     }
 
     public final boolean startsWith(byte[] prefix) {
-        for(int i = 0; i < prefix.length; i++){
-            if(i >= getData().length || getData()[i] != prefix[i]){
-                return false;
-            }
-        }
-        return true;
+        return rangeEquals(0, prefix, 0, prefix.length);
     }
 
     public boolean endsWith(ByteString byteString) {
-        for(int i = 0; i < byteString.getData().length; i++){
-            if(getData().length - 1 - i < 0 || getData()[getData().length - 1 - i] != byteString.getData()[byteString.getData().length - 1 - i]){
-                return false;
-            }
-        }
-        return true;
+        return rangeEquals(size() - byteString.size(), byteString, 0, byteString.size());
     }
+
     public final boolean endsWith(byte[] suffix) {
-        for(int i = 0; i < suffix.length; i++){
-            if(getData().length - 1 - i < 0 || getData()[getData().length - 1 - i] != suffix[suffix.length - 1 - i]){
-                return false;
-            }
-        }
-        return true;
+        return rangeEquals(size() - suffix.length, suffix, 0, suffix.length);
     }
 
 
@@ -185,19 +193,16 @@ public class ByteString implements Serializable, Comparable<ByteString> {
 
     public int indexOf(byte[] bytes, int startIndex) {
         startIndex = Math.max(startIndex, 0);
-        outer: for(int i = startIndex; i <= getData().length - bytes.length; i++){
-            for(int j = 0; j < bytes.length; j++){
-                if(j >= getData().length || getData()[i + j] != bytes[j]){
-                    continue outer;
-                }
+        for(int i = startIndex, limit = size() - bytes.length; i <= limit; i++){
+            if(rangeEquals(i, bytes, 0, bytes.length)){
+                return i;
             }
-            return i;
         }
         return -1;
     }
 
     public final int lastIndexOf(ByteString byteString) {
-        return lastIndexOf(byteString.getData(), getData().length);
+        return lastIndexOf(byteString.getData(), size());
     }
 
     public final int lastIndexOf(ByteString byteString, int fromIndex) {
@@ -205,13 +210,13 @@ public class ByteString implements Serializable, Comparable<ByteString> {
     }
 
     public final int lastIndexOf(byte[] other) {
-        return lastIndexOf(other, getData().length);
+        return lastIndexOf(other, size());
     }
 
     public int lastIndexOf(byte[] other, int fromIndex) {
-        fromIndex = Math.min(fromIndex, data.length - other.length);
+        fromIndex = Math.min(fromIndex, size() - other.length);
         for (int i = fromIndex; i >= 0; i--) {
-            if (arrayRangeEquals(data, i, other, 0, other.length)) {
+            if (rangeEquals(i, other, 0, other.length)) {
                 return i;
             }
         }
@@ -327,8 +332,8 @@ public class ByteString implements Serializable, Comparable<ByteString> {
 
     @Override
     public int compareTo(ByteString byteString) {
-        int sizeA = data.length;
-        int sizeB = byteString.data.length;
+        int sizeA = size();
+        int sizeB = byteString.size();
         for (int i = 0, size = Math.min(sizeA, sizeB); i < size; i++) {
             int byteA = getByte(i) & 0xff;
             int byteB = byteString.getByte(i) & 0xff;
@@ -359,7 +364,7 @@ public class ByteString implements Serializable, Comparable<ByteString> {
         return digest("SHA-512");
     }
 
-    private ByteString digest(String algorithm) {
+    ByteString digest(String algorithm) {
         try {
             return ByteString.of(MessageDigest.getInstance(algorithm).digest(data));
         } catch (NoSuchAlgorithmException e) {
@@ -379,7 +384,7 @@ public class ByteString implements Serializable, Comparable<ByteString> {
         return hmac("HmacSHA512", key);
     }
 
-    private ByteString hmac(String algorithm, ByteString key) {
+    ByteString hmac(String algorithm, ByteString key) {
         try {
             Mac mac = Mac.getInstance(algorithm);
             mac.init(new SecretKeySpec(key.toByteArray(), algorithm));
@@ -397,4 +402,9 @@ public class ByteString implements Serializable, Comparable<ByteString> {
         }
         outputStream.write(data);
     }
+
+    /** Appends the bytes of this to {@code buffer}. */
+    void write(Buffer buffer) {
+        buffer.write(data, 0, data.length);
+    }
 }
@@ -15,7 +15,6 @@
  */
 package okio;
 
-import test.MockSink;
 
 import java.io.IOException;
 import java.util.zip.Deflater;
@@ -40,16 +39,14 @@ public class DeflaterSink implements Sink {
   @Override
   public void write(Buffer source, long byteCount) throws IOException {
     checkOffsetAndCount(source.size(), 0, byteCount);
-    Segment sourceSegment = source.segmentList.getFirst();
     while (byteCount > 0) {
-      if(sourceSegment == null){
-        return;
-      }
+      Segment sourceSegment = source.segmentList.getFirst();
       int toDeflate = (int) Math.min(byteCount, sourceSegment.rear - sourceSegment.front);
       deflater.setInput(sourceSegment.data, sourceSegment.front, toDeflate);
       deflate(false);
+      // The deflater has taken those bytes; consume them so they aren't written again.
+      source.skip(toDeflate);
       byteCount -= toDeflate;
-      sourceSegment = sourceSegment.next;
     }
   }
 
@@ -0,0 +1,276 @@
+package okio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves many non-blocking socket channels from one thread. {@link #run} selects over every
+ * registered channel. When a channel is readable its bytes are read into the connection's
+ * {@link Connection#source source} buffer and its {@link Handler} is called; whatever the handler
+ * leaves in the connection's {@link Connection#sink sink} buffer is written as fast as the channel
+ * takes it.
+ *
+ * <p>A channel that fails is closed on its own; the loop keeps serving the others. Only a failing
+ * selector stops the loop.
+ *
+ * <p>Handlers run on the loop's thread and must not block. Connections and their buffers belong to
+ * that thread too: other threads may only call {@link #register}, {@link #listen} and
+ * {@link #close}.
+ */
+public final class EventLoop implements Runnable, Closeable {
+
+    private static final Logger logger = Logger.getLogger(EventLoop.class.getName());
+
+    /** The most bytes read from one channel each time it is found readable. */
+    private static final long READ_SIZE = (long) Segment.SIZE * SegmentList.MAX_VECTOR_SEGMENTS;
+
+    /** Receives a connection's events on the loop's thread. */
+    public interface Handler {
+
+        /**
+         * Called when new bytes are in {@link Connection#source}, and once more when the peer has
+         * finished sending. The connection is closed after that last call, once its sink is drained.
+         */
+        void onReadable(Connection connection) throws IOException;
+
+        /** Called once the connection is closed. {@code cause} is null unless it failed. */
+        default void onClosed(Connection connection, IOException cause) {
+        }
+    }
+
+    /** One socket channel served by the loop, with a buffer for each direction. */
+    public static final class Connection {
+        private final SocketChannel channel;
+        private final Handler handler;
+        private final NonBlockingSource in;
+        private final NonBlockingSink out;
+        private final Buffer source = new Buffer();
+        private final Buffer sink = new Buffer();
+        private SelectionKey key;
+        private boolean exhausted;
+        private boolean closeWhenFlushed;
+        private boolean closed;
+
+        Connection(SocketChannel channel, Handler handler) {
+            this.channel = channel;
+            this.handler = handler;
+            this.in = Okio.nonBlockingSource(channel);
+            this.out = Okio.nonBlockingSink(channel);
+        }
+
+        public SocketChannel channel() {
+            return channel;
+        }
+
+        /** Bytes received and not yet consumed by the handler. */
+        public Buffer source() {
+            return source;
+        }
+
+        /** Bytes to send. Call {@link #flush} after adding to it. */
+        public Buffer sink() {
+            return sink;
+        }
+
+        /** True once the peer has finished sending. */
+        public boolean exhausted() {
+            return exhausted;
+        }
+
+        /**
+         * Writes as much of {@link #sink} as the channel takes now, and has the loop write the rest
+         * when the channel is writable again.
+         */
+        public void flush() throws IOException {
+            if (closed) throw new IllegalStateException("closed");
+            if (sink.size() > 0) {
+                out.write(sink, sink.size());
+            }
+            if (sink.size() == 0 && closeWhenFlushed) {
+                closeNow(null);
+                return;
+            }
+            int ops = key.interestOps();
+            key.interestOps(sink.size() > 0 ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE);
+        }
+
+        /** Closes the channel once everything in {@link #sink} has been written. */
+        public void close() throws IOException {
+            if (closed) return;
+            closeWhenFlushed = true;
+            flush();
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        void ready(int readyOps) {
+            try {
+                if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+                    flush();
+                }
+                if (!closed && (readyOps & SelectionKey.OP_READ) != 0) {
+                    long read = in.read(source, READ_SIZE);
+                    if (read == -1) {
+                        exhausted = true;
+                        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    }
+                    if (read != 0) {
+                        handler.onReadable(this);
+                    }
+                    if (exhausted) {
+                        close();
+                    }
+                }
+            } catch (IOException e) {
+                closeNow(e);
+            }
+        }
+
+        void closeNow(IOException cause) {
+            if (closed) return;
+            closed = true;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            handler.onClosed(this, cause);
+        }
+
+        @Override public String toString() {
+            return "EventLoop.Connection(" + channel + ")";
+        }
+    }
+
+    private final Selector selector;
+    /** Work handed to the loop's thread by other threads. Tasks deal with their own failures. */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    public EventLoop() throws IOException {
+        selector = Selector.open();
+    }
+
+    /** Serves {@code channel}, which is switched to non-blocking mode, with {@code handler}. */
+    public void register(final SocketChannel channel, final Handler handler) throws IOException {
+        if (channel == null) throw new IllegalArgumentException("channel == null");
+        if (handler == null) throw new IllegalArgumentException("handler == null");
+        channel.configureBlocking(false);
+        execute(() -> add(channel, handler));
+    }
+
+    /** Accepts connections on {@code server} and serves each of them with {@code handler}. */
+    public void listen(final ServerSocketChannel server, final Handler handler) throws IOException {
+        if (server == null) throw new IllegalArgumentException("server == null");
+        if (handler == null) throw new IllegalArgumentException("handler == null");
+        server.configureBlocking(false);
+        execute(() -> {
+            try {
+                server.register(selector, SelectionKey.OP_ACCEPT, handler);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to listen on " + server, e);
+                closeQuietly(server);
+            }
+        });
+    }
+
+    private void execute(Runnable task) {
+        if (closed) throw new IllegalStateException("closed");
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /** Accepts one connection on the channel of {@code key}, if one is pending. */
+    private void accept(SelectionKey key) {
+        SocketChannel channel;
+        try {
+            channel = ((ServerSocketChannel) key.channel()).accept();
+        } catch (IOException e) {
+            // Likely out of file descriptors. The connection stays pending; try again next time.
+            logger.log(Level.WARNING, "Failed to accept on " + key.channel(), e);
+            return;
+        }
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            return;
+        }
+        add(channel, (Handler) key.attachment());
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void add(SocketChannel channel, Handler handler) {
+        Connection connection = new Connection(channel, handler);
+        try {
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        } catch (IOException e) {
+            connection.closeNow(e);
+        }
+    }
+
+    /** Runs the loop on the calling thread until {@link #close} is called. */
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                for (Runnable task; (task = tasks.poll()) != null; ) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(key);
+                    } else {
+                        ((Connection) key.attachment()).ready(key.readyOps());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Only select() throws here: the selector itself is broken.
+            throw new IllegalStateException("event loop failed", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).closeNow(null);
+                }
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    /** Stops the loop and closes every connection it serves. Listening channels are left open. */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,92 @@
+package okio;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import static okio.Util.checkOffsetAndCount;
+
+/**
+ * Writes a file through its {@link FileChannel}, straight from the source's segments. Writes are
+ * positional: this sink keeps its own position and never moves the channel's, so several sinks
+ * may write disjoint regions of one channel at once.
+ *
+ * <p>Every write hands its bytes to the operating system, so {@link #flush} has nothing to do. Use
+ * {@link FileChannel#force} on the channel when the bytes must reach the storage device.
+ */
+public final class FileChannelSink implements Sink {
+
+    private final FileChannel channel;
+    private final Timeout timeout = new Timeout();
+    private long position;
+
+    public FileChannelSink(FileChannel channel, long position) {
+        if (channel == null) throw new IllegalArgumentException("channel == null");
+        if (position < 0) throw new IllegalArgumentException("position < 0: " + position);
+        this.channel = channel;
+        this.position = position;
+    }
+
+    public FileChannelSink(FileChannel channel) {
+        this(channel, 0);
+    }
+
+    @Override
+    public void write(Buffer source, long byteCount) throws IOException {
+        checkOffsetAndCount(source.size(), 0, byteCount);
+        timeout.throwIfReached();
+        source.segmentList.writeTo(channel, position, byteCount);
+        position += byteCount;
+    }
+
+    /**
+     * Copies up to {@code byteCount} bytes from {@code source} into the file at this sink's
+     * position with {@link FileChannel#transferFrom}, which lets the operating system move them
+     * without copying them through the JVM. Returns the number of bytes copied. That is less than
+     * {@code byteCount} if {@code source} is exhausted first, or if it is non-blocking and has
+     * nothing to read.
+     */
+    public long transferFrom(ReadableByteChannel source, long byteCount) throws IOException {
+        if (source == null) throw new IllegalArgumentException("source == null");
+        if (byteCount < 0) throw new IllegalArgumentException("byteCount < 0: " + byteCount);
+        long total = 0;
+        while (total < byteCount) {
+            timeout.throwIfReached();
+            long transferred = channel.transferFrom(source, position, byteCount - total);
+            if (transferred == 0) break;
+            position += transferred;
+            total += transferred;
+        }
+        return total;
+    }
+
+    /** Returns the offset in the file where this sink will write its next byte. */
+    public long position() {
+        return position;
+    }
+
+    public FileChannelSink position(long position) {
+        if (position < 0) throw new IllegalArgumentException("position < 0: " + position);
+        this.position = position;
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public Timeout timeout() {
+        return timeout;
+    }
+
+    @Override
+    public String toString() {
+        return "sink(" + channel + ")";
+    }
+}
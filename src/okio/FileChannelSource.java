@@ -0,0 +1,85 @@
+package okio;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Reads a file through its {@link FileChannel}, straight into the sink's segments. Reads are
+ * positional: this source keeps its own position and never moves the channel's, so several
+ * sources may read one channel at once.
+ */
+public final class FileChannelSource implements Source {
+
+    private final FileChannel channel;
+    private final Timeout timeout = new Timeout();
+    private long position;
+
+    public FileChannelSource(FileChannel channel, long position) {
+        if (channel == null) throw new IllegalArgumentException("channel == null");
+        if (position < 0) throw new IllegalArgumentException("position < 0: " + position);
+        this.channel = channel;
+        this.position = position;
+    }
+
+    public FileChannelSource(FileChannel channel) {
+        this(channel, 0);
+    }
+
+    @Override
+    public long read(Buffer sink, long byteCount) throws IOException {
+        if (byteCount < 0) throw new IllegalArgumentException("byteCount < 0: " + byteCount);
+        if (byteCount == 0) return 0;
+        timeout.throwIfReached();
+        int read = sink.segmentList.readOnce(channel, position, byteCount);
+        if (read == -1) return -1;
+        position += read;
+        return read;
+    }
+
+    /**
+     * Copies up to {@code byteCount} bytes from this source's position to {@code target} with
+     * {@link FileChannel#transferTo}, which lets the operating system move them without copying
+     * them through the JVM. Returns the number of bytes copied. That is less than
+     * {@code byteCount} if the file ends first, or if {@code target} is non-blocking and full.
+     */
+    public long transferTo(WritableByteChannel target, long byteCount) throws IOException {
+        if (target == null) throw new IllegalArgumentException("target == null");
+        if (byteCount < 0) throw new IllegalArgumentException("byteCount < 0: " + byteCount);
+        long total = 0;
+        while (total < byteCount) {
+            timeout.throwIfReached();
+            long transferred = channel.transferTo(position, byteCount - total, target);
+            if (transferred == 0) break;
+            position += transferred;
+            total += transferred;
+        }
+        return total;
+    }
+
+    /** Returns the offset in the file of the next byte this source will read. */
+    public long position() {
+        return position;
+    }
+
+    public FileChannelSource position(long position) {
+        if (position < 0) throw new IllegalArgumentException("position < 0: " + position);
+        this.position = position;
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public Timeout timeout() {
+        return timeout;
+    }
+
+    @Override
+    public String toString() {
+        return "source(" + channel + ")";
+    }
+}
@@ -0,0 +1,66 @@
+package okio;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a {@link RealBufferedSink} passes its buffered bytes downstream on its own, between
+ * calls to {@link BufferedSink#emit} and {@link Sink#flush}. Emitting less often lets small writes,
+ * such as the frames of an RPC protocol, coalesce into fewer and larger downstream writes.
+ *
+ * <p>A policy with a {@link #withMaxDelay maximum delay} also bounds how long written bytes may
+ * wait: a background thread flushes the sink once its oldest unflushed bytes are that old.
+ */
+public final class FlushPolicy {
+
+    /** Emits each segment as soon as it is full. This is the default. */
+    public static final FlushPolicy COMPLETE_SEGMENTS = new FlushPolicy(Segment.SIZE, true, 0L);
+
+    /** The fewest bytes that are emitted at once. */
+    final long byteCount;
+    /** True to emit only complete segments, keeping the partial tail buffered. */
+    final boolean completeSegmentsOnly;
+    /** The longest that written bytes wait before they are flushed, or 0 for no limit. */
+    final long maxDelayNanos;
+
+    private FlushPolicy(long byteCount, boolean completeSegmentsOnly, long maxDelayNanos) {
+        this.byteCount = byteCount;
+        this.completeSegmentsOnly = completeSegmentsOnly;
+        this.maxDelayNanos = maxDelayNanos;
+    }
+
+    /** Emits everything buffered once at least {@code byteCount} bytes are. */
+    public static FlushPolicy bytes(long byteCount) {
+        if (byteCount < 1) throw new IllegalArgumentException("byteCount < 1: " + byteCount);
+        return new FlushPolicy(byteCount, false, 0L);
+    }
+
+    /** Emits complete segments once at least {@code segmentCount} of them are buffered. */
+    public static FlushPolicy segments(int segmentCount) {
+        if (segmentCount < 1) throw new IllegalArgumentException("segmentCount < 1: " + segmentCount);
+        return new FlushPolicy((long) segmentCount * Segment.SIZE, true, 0L);
+    }
+
+    /**
+     * Returns a copy of this policy that also flushes the sink when bytes have waited
+     * {@code maxDelay} without being emitted. Sinks with such a policy take a lock on each write,
+     * since a background thread may flush them at any time. Bytes written straight to their
+     * {@link BufferedSink#buffer}, as a {@link DeflaterSink} does, wait for the caller's next call on
+     * the sink before the delay applies to them.
+     */
+    public FlushPolicy withMaxDelay(long maxDelay, TimeUnit unit) {
+        if (maxDelay <= 0) throw new IllegalArgumentException("maxDelay <= 0: " + maxDelay);
+        if (unit == null) throw new IllegalArgumentException("unit == null");
+        return new FlushPolicy(byteCount, completeSegmentsOnly, unit.toNanos(maxDelay));
+    }
+
+    /** Returns how many of {@code buffer}'s bytes should be emitted now. */
+    long emitByteCount(Buffer buffer) {
+        long buffered = completeSegmentsOnly ? buffer.completeSegmentByteCount() : buffer.size();
+        return buffered >= byteCount ? buffered : 0L;
+    }
+
+    @Override public String toString() {
+        return "FlushPolicy(" + (completeSegmentsOnly ? "segments=" + byteCount / Segment.SIZE : "bytes=" + byteCount)
+                + (maxDelayNanos != 0 ? ", maxDelayNanos=" + maxDelayNanos : "") + ")";
+    }
+}
@@ -0,0 +1,700 @@
+package okio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import static okio.Util.UTF_8;
+import static okio.Util.checkArraySize;
+import static okio.Util.checkOffsetAndCount;
+
+/**
+ * A read-only {@link BufferedSource} over a memory-mapped file. Bytes are read in place from the
+ * mapping: searching, comparing, selecting and skipping never copy, and reads copy only the bytes
+ * they return. The read position can be moved anywhere with {@link #seek}.
+ *
+ * <p>{@link #buffer} is for callers like {@link InflaterSource} and {@link GzipSource} that consume a
+ * source through its buffer. {@link #exhausted}, {@link #request} and {@link #require} copy the bytes
+ * they check for into it, and bytes consumed from it are consumed from the source. Reads of bytes
+ * and numbers take from the buffer first; every other method drops what is left in it and reads in
+ * place again. Bytes written to the buffer are not read back: they don't move the read position, and
+ * the next method that copies or reads in place drops them.
+ *
+ * <p>Create instances with {@link Okio#mappedSource}.
+ */
+public final class MappedFileSource implements BufferedSource {
+
+    /** Files are mapped in chunks of {@code 1 << CHUNK_SHIFT} bytes; one mapping can't exceed 2 GiB. */
+    static final int CHUNK_SHIFT = 30;
+
+    private final int chunkShift;
+    private final int chunkMask;
+    private final long size;
+    /**
+     * The bytes at the read position, copied by {@link #request} for callers of {@link #buffer}.
+     * Methods that read from the mapping first drop them, then use this to decode strings and
+     * numbers.
+     */
+    private final Buffer scratch = new Buffer();
+    private ByteBuffer[] chunks;
+    /**
+     * How many bytes at the head of {@link #scratch} were copied from the mapping and are still
+     * unread. Any bytes after them were written by a caller of {@link #buffer}.
+     */
+    private long copied;
+    /** The offset in the file just past the bytes copied into {@link #scratch}. */
+    private long position;
+
+    MappedFileSource(FileChannel channel, int chunkShift) throws IOException {
+        this.chunkShift = chunkShift;
+        this.chunkMask = (1 << chunkShift) - 1;
+        this.size = channel.size();
+        long chunkSize = 1L << chunkShift;
+        chunks = new ByteBuffer[(int) ((size + chunkSize - 1) >>> chunkShift)];
+        for (int i = 0; i < chunks.length; i++) {
+            long offset = (long) i << chunkShift;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(chunkSize, size - offset))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /** Returns the length of the file, as it was when it was mapped. */
+    public long size() {
+        return size;
+    }
+
+    /** Returns the offset in the file of the next byte to be read. */
+    public long position() {
+        return position - copied();
+    }
+
+    /** Moves the read position to {@code position}, which may be anywhere from 0 to {@link #size}. */
+    public MappedFileSource seek(long position) {
+        if (chunks == null) throw new IllegalStateException("closed");
+        dropBuffer();
+        if (position < 0 || position > size) {
+            throw new IllegalArgumentException("position " + position + " not in [0.." + size + "]");
+        }
+        this.position = position;
+        return this;
+    }
+
+    @Override
+    public long read(Buffer sink, long byteCount) throws IOException {
+        if (byteCount < 0) throw new IllegalArgumentException("byteCount < 0: " + byteCount);
+        checkNotClosed();
+        if (copied() > 0) {
+            long toRead = Math.min(byteCount, copied);
+            sink.write(scratch, toRead);
+            copied -= toRead;
+            return toRead;
+        }
+        if (position == size) return -1;
+        long toRead = Math.min(byteCount, size - position);
+        moveTo(sink, toRead);
+        return toRead;
+    }
+
+    @Override
+    public String readUtf8() throws IOException {
+        unbuffer();
+        return readUtf8(size - position);
+    }
+
+    @Override
+    public String readUtf8(long byteCount) throws IOException {
+        requireInFile(checkArraySize(byteCount));
+        moveTo(scratch, byteCount);
+        return scratch.readUtf8(byteCount);
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        checkNotClosed();
+        if (copied() > 0) {
+            copied--;
+            return scratch.readByte();
+        }
+        requireInFile(1);
+        return byteAt(position++);
+    }
+
+    @Override
+    public boolean exhausted() throws IOException {
+        return !request(1);
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        return Short.reverseBytes((short) readLittleEndian(2));
+    }
+
+    @Override
+    public short readShortLe() throws IOException {
+        return (short) readLittleEndian(2);
+    }
+
+    @Override
+    public void skip(long count) throws IOException {
+        if (count < 0) throw new IllegalArgumentException("byteCount < 0: " + count);
+        checkNotClosed();
+        if (copied() + size - position < count) throw new EOFException();
+        // Consume buffered bytes in place: a caller like InflaterSource may still hold their segment.
+        long fromBuffer = Math.min(count, copied);
+        scratch.skip(fromBuffer);
+        copied -= fromBuffer;
+        position += count - fromBuffer;
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return Integer.reverseBytes((int) readLittleEndian(4));
+    }
+
+    @Override
+    public int readIntLe() throws IOException {
+        return (int) readLittleEndian(4);
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return Long.reverseBytes(readLittleEndian(8));
+    }
+
+    @Override
+    public long readLongLe() throws IOException {
+        return readLittleEndian(8);
+    }
+
+    /** Reads a little-endian integer of {@code byteCount} bytes, at most eight. */
+    private long readLittleEndian(int byteCount) throws IOException {
+        checkNotClosed();
+        if (copied() >= byteCount) {
+            copied -= byteCount;
+            switch (byteCount) {
+                case 2: return scratch.readShortLe();
+                case 4: return scratch.readIntLe();
+                case 8: return scratch.readLongLe();
+                default: throw new AssertionError();
+            }
+        }
+        requireInFile(byteCount);
+        ByteBuffer chunk = chunks[(int) (position >>> chunkShift)];
+        int pos = (int) position & chunkMask;
+        long result = 0;
+        if (pos + byteCount <= chunk.limit()) {
+            switch (byteCount) {
+                case 2: result = chunk.getShort(pos); break;
+                case 4: result = chunk.getInt(pos); break;
+                case 8: result = chunk.getLong(pos); break;
+                default: throw new AssertionError();
+            }
+        } else {
+            for (int i = byteCount - 1; i >= 0; i--) {
+                result = result << 8 | (byteAt(position + i) & 0xff);
+            }
+        }
+        position += byteCount;
+        return result;
+    }
+
+    /** Returns the bytes that were copied by {@link #request}. See the class comment. */
+    @Override
+    public Buffer buffer() {
+        return scratch;
+    }
+
+    @Override
+    public long readAll(Sink sink) throws IOException {
+        unbuffer();
+        long total = size - position;
+        while (position < size) {
+            long toMove = Math.min(Segment.SIZE, size - position);
+            moveTo(scratch, toMove);
+            sink.write(scratch, toMove);
+        }
+        return total;
+    }
+
+    @Override
+    public void readFully(Buffer sink, long length) throws IOException {
+        unbuffer();
+        if (size - position < length) {
+            moveTo(sink, size - position);
+            throw new EOFException();
+        }
+        moveTo(sink, length);
+    }
+
+    @Override
+    public void readFully(byte[] sink) throws IOException {
+        unbuffer();
+        if (size - position < sink.length) {
+            read(sink);
+            throw new EOFException();
+        }
+        copy(position, sink, 0, sink.length);
+        position += sink.length;
+    }
+
+    @Override
+    public int read(byte[] sink) throws IOException {
+        return read(sink, 0, sink.length);
+    }
+
+    @Override
+    public int read(byte[] sink, int offset, int byteCount) throws IOException {
+        unbuffer();
+        checkOffsetAndCount(sink.length, offset, byteCount);
+        if (position == size) return -1;
+        int toCopy = (int) Math.min(byteCount, size - position);
+        copy(position, sink, offset, toCopy);
+        position += toCopy;
+        return toCopy;
+    }
+
+    @Override
+    public byte[] readByteArray() throws IOException {
+        unbuffer();
+        return readByteArray(size - position);
+    }
+
+    @Override
+    public byte[] readByteArray(long byteCount) throws IOException {
+        int count = checkArraySize(byteCount);
+        requireInFile(count);
+        byte[] result = new byte[count];
+        copy(position, result, 0, count);
+        position += count;
+        return result;
+    }
+
+    @Override
+    public ByteString readByteString() throws IOException {
+        return new ByteString(readByteArray());
+    }
+
+    @Override
+    public ByteString readByteString(long byteCount) throws IOException {
+        return new ByteString(readByteArray(byteCount));
+    }
+
+    @Override
+    public String readString(long byteCount, Charset charset) throws IOException {
+        if (charset.equals(UTF_8)) {
+            return readUtf8(byteCount);
+        }
+        return new String(readByteArray(byteCount), charset);
+    }
+
+    @Override
+    public String readString(Charset charset) throws IOException {
+        unbuffer();
+        return readString(size - position, charset);
+    }
+
+    @Override
+    public long indexOf(byte b) throws IOException {
+        return indexOf(b, 0, Long.MAX_VALUE);
+    }
+
+    @Override
+    public long indexOf(byte b, long fromIndex) throws IOException {
+        return indexOf(b, fromIndex, Long.MAX_VALUE);
+    }
+
+    @Override
+    public long indexOf(byte b, long fromIndex, long toIndex) throws IOException {
+        unbuffer();
+        if (fromIndex < 0) throw new IllegalArgumentException("fromIndex < 0");
+        if (fromIndex > toIndex) throw new IllegalArgumentException("fromIndex > toIndex");
+        long remaining = size - position;
+        if (fromIndex >= remaining) return -1;
+        long result = indexOfInFile(b, position + fromIndex, position + Math.min(remaining, toIndex));
+        return result == -1 ? -1 : result - position;
+    }
+
+    /** Returns the offset in the file of the first {@code b} in {@code [fromOffset..toOffset)}. */
+    private long indexOfInFile(byte b, long fromOffset, long toOffset) {
+        long offset = fromOffset;
+        while (offset < toOffset) {
+            ByteBuffer chunk = chunks[(int) (offset >>> chunkShift)];
+            int pos = (int) offset & chunkMask;
+            int end = (int) Math.min(chunk.limit(), pos + (toOffset - offset));
+            int found = indexOf(chunk, pos, end, b);
+            if (found != -1) {
+                return offset + (found - pos);
+            }
+            offset += end - pos;
+        }
+        return -1;
+    }
+
+    /** Like {@link SegmentList#indexOf(Segment, int, int, byte)}, eight bytes at a time. */
+    private static int indexOf(ByteBuffer chunk, int pos, int end, byte target) {
+        long pattern = (target & 0xffL) * 0x0101010101010101L;
+        for (; pos <= end - 8; pos += 8) {
+            long x = chunk.getLong(pos) ^ pattern;
+            long found = (x - 0x0101010101010101L) & ~x & 0x8080808080808080L;
+            if (found != 0) {
+                return pos + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; pos < end; pos++) {
+            if (chunk.get(pos) == target) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public long indexOf(ByteString byteString) throws IOException {
+        return indexOf(byteString, 0);
+    }
+
+    @Override
+    public long indexOf(ByteString byteString, long fromIndex) throws IOException {
+        unbuffer();
+        if (byteString == null || byteString.size() == 0) {
+            throw new IllegalArgumentException("bytes is empty");
+        }
+        if (fromIndex < 0) throw new IllegalArgumentException("fromIndex < 0");
+
+        // Find each occurrence of the first byte, then compare the rest in place.
+        byte first = byteString.getByte(0);
+        long lastOffset = size - byteString.size();
+        if (fromIndex > lastOffset - position) return -1;
+        long offset = position + fromIndex;
+        while (offset <= lastOffset) {
+            long found = indexOfInFile(first, offset, lastOffset + 1);
+            if (found == -1) {
+                return -1;
+            }
+            if (rangeEqualsAt(found + 1, byteString, 1, byteString.size() - 1)) {
+                return found - position;
+            }
+            offset = found + 1;
+        }
+        return -1;
+    }
+
+    @Override
+    public long indexOfElement(ByteString byteString) throws IOException {
+        return indexOfElement(byteString, 0);
+    }
+
+    @Override
+    public long indexOfElement(ByteString byteString, long fromIndex) throws IOException {
+        return indexOfElement(ByteSet.of(byteString), fromIndex);
+    }
+
+    @Override
+    public long indexOfElement(ByteSet byteSet) throws IOException {
+        return indexOfElement(byteSet, 0);
+    }
+
+    @Override
+    public long indexOfElement(ByteSet byteSet, long fromIndex) throws IOException {
+        unbuffer();
+        if (fromIndex < 0) throw new IllegalArgumentException("fromIndex < 0");
+        if (fromIndex >= size - position) return -1;
+        long toOffset = size;
+        long offset = position + fromIndex;
+        while (offset < toOffset) {
+            ByteBuffer chunk = chunks[(int) (offset >>> chunkShift)];
+            int start = (int) offset & chunkMask;
+            int end = (int) Math.min(chunk.limit(), start + (toOffset - offset));
+            for (int pos = start; pos < end; pos++) {
+                if (byteSet.contains(chunk.get(pos))) {
+                    return offset + (pos - start) - position;
+                }
+            }
+            offset += end - start;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean request(long count) throws IOException {
+        if (count < 0) throw new IllegalArgumentException("byteCount < 0: " + count);
+        checkNotClosed();
+        if (scratch.size() > copied()) {
+            // Copies must follow the unread ones, not bytes a caller wrote to the buffer.
+            unbuffer();
+        }
+        if (copied < count) {
+            // Copy at least a segment, so a caller consuming the buffer isn't fed a byte at a time.
+            long toCopy = Math.min(Math.max(count - copied, Segment.SIZE - copied), size - position);
+            moveTo(scratch, toCopy);
+            copied += toCopy;
+        }
+        return copied >= count;
+    }
+
+    @Override
+    public void require(long count) throws IOException {
+        if (!request(count)) {
+            throw new EOFException();
+        }
+    }
+
+    @Override
+    public InputStream inputStream() {
+        return new InputStream() {
+            @Override public int read() throws IOException {
+                unbuffer();
+                if (position == size) return -1;
+                return byteAt(position++) & 0xff;
+            }
+
+            @Override public int read(byte[] data, int offset, int byteCount) throws IOException {
+                return MappedFileSource.this.read(data, offset, byteCount);
+            }
+
+            @Override public long skip(long byteCount) throws IOException {
+                unbuffer();
+                long toSkip = Math.max(0, Math.min(byteCount, size - position));
+                position += toSkip;
+                return toSkip;
+            }
+
+            @Override public int available() throws IOException {
+                unbuffer();
+                return (int) Math.min(size - position, Integer.MAX_VALUE);
+            }
+
+            @Override public void close() throws IOException {
+                MappedFileSource.this.close();
+            }
+
+            @Override public String toString() {
+                return MappedFileSource.this + ".inputStream()";
+            }
+        };
+    }
+
+    @Override
+    public long readHexadecimalUnsignedLong() throws IOException {
+        requireInFile(1);
+        int length = 0;
+        for (long offset = position; offset < size; offset++, length++) {
+            byte b = byteAt(offset);
+            if ((b < '0' || b > '9') && (b < 'a' || b > 'f') && (b < 'A' || b > 'F')) {
+                if (length == 0) {
+                    throw new NumberFormatException(String.format(
+                            "Expected leading [0-9a-fA-F] character but was %#x", b));
+                }
+                break;
+            }
+        }
+        moveTo(scratch, length);
+        try {
+            return scratch.readHexadecimalUnsignedLong();
+        } finally {
+            scratch.skip(scratch.size());
+        }
+    }
+
+    @Override
+    public long readDecimalLong() throws IOException {
+        requireInFile(1);
+        int length = 0;
+        for (long offset = position; offset < size; offset++, length++) {
+            byte b = byteAt(offset);
+            if ((b < '0' || b > '9') && (length != 0 || b != '-')) {
+                if (length == 0) {
+                    throw new NumberFormatException(String.format(
+                            "Expected leading [0-9] or '-' character but was %#x", b));
+                }
+                break;
+            }
+        }
+        moveTo(scratch, length);
+        try {
+            return scratch.readDecimalLong();
+        } finally {
+            scratch.skip(scratch.size());
+        }
+    }
+
+    @Override
+    public boolean rangeEquals(long offset, ByteString byteString) throws IOException {
+        return rangeEquals(offset, byteString, 0, byteString.size());
+    }
+
+    @Override
+    public boolean rangeEquals(long offset, ByteString bytes, int bytesOffset, int byteCount) throws IOException {
+        unbuffer();
+        if (offset < 0 || bytesOffset < 0 || byteCount < 0 || byteCount > bytes.size() - bytesOffset) {
+            return false;
+        }
+        if (offset > size - position - byteCount) {
+            return false;
+        }
+        return rangeEqualsAt(position + offset, bytes, bytesOffset, byteCount);
+    }
+
+    private boolean rangeEqualsAt(long offset, ByteString bytes, int bytesOffset, int byteCount) {
+        for (int i = 0; i < byteCount; i++) {
+            if (byteAt(offset + i) != bytes.getByte(bytesOffset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int select(Options options) throws IOException {
+        unbuffer();
+        int[] trie = options.trie;
+        int node = 0;
+        int best = trie[0];
+        for (long offset = position; offset < size && best > trie[node + 1]; offset++) {
+            int b = byteAt(offset) & 0xff;
+            int child = -1;
+            for (int i = node + 3, end = i + trie[node + 2] * 2; i < end && trie[i] <= b; i += 2) {
+                if (trie[i] == b) {
+                    child = trie[i + 1];
+                    break;
+                }
+            }
+            if (child == -1) {
+                break;
+            }
+            node = child;
+            best = Math.min(best, trie[node]);
+        }
+        if (best == Options.NONE) {
+            return -1;
+        }
+        position += options.byteStrings[best].size();
+        return best;
+    }
+
+    @Override
+    public String readUtf8LineStrict() throws IOException {
+        return readUtf8LineStrict(Long.MAX_VALUE);
+    }
+
+    @Override
+    public String readUtf8LineStrict(long limit) throws IOException {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit < 0: " + limit);
+        }
+        long scanLength = limit == Long.MAX_VALUE ? Long.MAX_VALUE : limit + 1;
+        long newline = indexOf((byte) '\n', 0, scanLength);
+        if (newline != -1) {
+            return readUtf8Line(newline);
+        }
+        if (scanLength < Long.MAX_VALUE
+                && size - position > scanLength && byteAt(position + scanLength - 1) == '\r'
+                && byteAt(position + scanLength) == '\n') {
+            return readUtf8Line(scanLength);
+        }
+        byte[] content = new byte[(int) Math.min(32, size - position)];
+        copy(position, content, 0, content.length);
+        throw new EOFException("\\n not found: limit=" + Math.min(size - position, limit)
+                + " content=" + ByteString.of(content).hex() + '…');
+    }
+
+    @Override
+    public String readUtf8Line() throws IOException {
+        long newline = indexOf((byte) '\n');
+        if (newline == -1) {
+            return position != size ? readUtf8() : null;
+        }
+        return readUtf8Line(newline);
+    }
+
+    /** Reads the line ending with the {@code '\n'} at {@code newline}, dropping a {@code "\r\n"}. */
+    private String readUtf8Line(long newline) throws IOException {
+        moveTo(scratch, newline + 1);
+        return scratch.readUtf8Line(newline);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping stays valid until it is garbage collected; dropping it is all we can do.
+        chunks = null;
+        scratch.skip(scratch.size());
+        copied = 0;
+    }
+
+    @Override
+    public Timeout timeout() {
+        return Timeout.NONE;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedFileSource{size=" + size + ", position=" + position() + '}';
+    }
+
+    private void checkNotClosed() throws IOException {
+        if (chunks == null) throw new IOException("closed");
+    }
+
+    /**
+     * Returns how many bytes copied into the buffer are unread. A caller of {@link #buffer} that
+     * consumed some of them shrank the buffer; bytes it wrote follow the copies and aren't counted.
+     */
+    private long copied() {
+        return copied = Math.min(copied, scratch.size());
+    }
+
+    /** Drops the bytes in the buffer, so that the read position is in the mapping again. */
+    private void unbuffer() throws IOException {
+        checkNotClosed();
+        dropBuffer();
+    }
+
+    private void dropBuffer() {
+        position -= copied();
+        copied = 0;
+        if (scratch.size() > 0) {
+            scratch.segmentList.remove(scratch.size());
+        }
+    }
+
+    /** Like {@link #require}, without copying into the buffer. */
+    private void requireInFile(long byteCount) throws IOException {
+        unbuffer();
+        if (size - position < byteCount) throw new EOFException();
+    }
+
+    private byte byteAt(long offset) {
+        return chunks[(int) (offset >>> chunkShift)].get((int) offset & chunkMask);
+    }
+
+    /** Copies {@code byteCount} bytes at {@code offset} in the file into {@code sink}. */
+    private void copy(long offset, byte[] sink, int sinkOffset, int byteCount) {
+        while (byteCount > 0) {
+            ByteBuffer chunk = chunks[(int) (offset >>> chunkShift)];
+            int pos = (int) offset & chunkMask;
+            int toCopy = Math.min(byteCount, chunk.limit() - pos);
+            // Through java.nio.Buffer so the call links against Java 8's position(int).
+            ((java.nio.Buffer) chunk).position(pos);
+            chunk.get(sink, sinkOffset, toCopy);
+            offset += toCopy;
+            sinkOffset += toCopy;
+            byteCount -= toCopy;
+        }
+    }
+
+    /** Copies {@code byteCount} bytes at the read position into {@code sink}'s segments and consumes them. */
+    private void moveTo(Buffer sink, long byteCount) {
+        while (byteCount > 0) {
+            Segment tail = sink.writableSegment(1);
+            int toCopy = (int) Math.min(byteCount, Segment.SIZE - tail.rear);
+            copy(position, tail.data, tail.rear, toCopy);
+            tail.rear += toCopy;
+            position += toCopy;
+            byteCount -= toCopy;
+        }
+    }
+}
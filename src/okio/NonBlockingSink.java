@@ -0,0 +1,18 @@
+package okio;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A {@link Sink} that never waits. {@link #write} takes only as many bytes as can be written
+ * without blocking, possibly none; an {@link EventLoop} offers the rest once the channel is
+ * writable again.
+ */
+public interface NonBlockingSink extends Closeable {
+
+    /**
+     * Removes up to {@code byteCount} bytes from the head of {@code source} and writes them.
+     * Returns the number of bytes written, which is 0 if none could be written right now.
+     */
+    long write(Buffer source, long byteCount) throws IOException;
+}
@@ -0,0 +1,17 @@
+package okio;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A {@link Source} that never waits. When no bytes are ready, {@link #read} returns 0 rather than
+ * blocking; an {@link EventLoop} calls it again once the channel is readable.
+ */
+public interface NonBlockingSource extends Closeable {
+
+    /**
+     * Removes up to {@code byteCount} bytes that are ready now and appends them to {@code sink}.
+     * Returns the number of bytes read, 0 if none are ready, or -1 if this source is exhausted.
+     */
+    long read(Buffer sink, long byteCount) throws IOException;
+}
@@ -3,7 +3,13 @@ package okio;
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.logging.Level;
 
 import static okio.Util.checkOffsetAndCount;
@@ -24,14 +30,43 @@ public class Okio {
         if(path == null){
             throw new NullPointerException("path cannot be null!");
         }
-        return sink(new FileOutputStream(path.toFile()));
+        FileChannel channel = open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return new FileChannelSink(channel);
     }
 
     public static Source source(Path path) throws FileNotFoundException {
         if(path == null){
             throw new NullPointerException("path cannot be null!");
         }
-        return source(new FileInputStream(path.toFile()));
+        return new FileChannelSource(open(path, StandardOpenOption.READ));
+    }
+
+    /**
+     * Opens {@code path} like the stream constructors do: any failure to open it, such as a
+     * {@link java.nio.file.NoSuchFileException}, is reported as a {@link FileNotFoundException}.
+     */
+    private static FileChannel open(Path path, OpenOption... options) throws FileNotFoundException {
+        try {
+            return FileChannel.open(path, options);
+        } catch (IOException e) {
+            FileNotFoundException notFound = new FileNotFoundException(e.getMessage());
+            notFound.initCause(e);
+            throw notFound;
+        }
+    }
+
+    /**
+     * Returns a source that reads {@code path} through a read-only memory mapping of the whole
+     * file. The file's length is fixed when it is mapped.
+     */
+    public static MappedFileSource mappedSource(Path path) throws IOException {
+        if(path == null){
+            throw new NullPointerException("path cannot be null!");
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new MappedFileSource(channel, MappedFileSource.CHUNK_SHIFT);
+        }
     }
 
     public static Sink sink(OutputStream out) {
@@ -82,6 +117,14 @@ public class Okio {
         return new RealBufferedSink(sink);
     }
 
+    /** Like {@link #buffer(Sink)}, but emits to {@code sink} when {@code policy} says to. */
+    public static BufferedSink buffer(Sink sink, FlushPolicy policy) {
+        if(sink == null){
+            throw new NullPointerException("sink == null");
+        }
+        return new RealBufferedSink(sink, policy);
+    }
+
     public static Source source(File file) throws FileNotFoundException {
         if(file == null){
             throw new NullPointerException("file cannot be null!");
@@ -93,7 +136,7 @@ public class Okio {
         if(inputStream == null){
             throw new NullPointerException("inputStream cannot be null!");
         }
-        return new RealBufferedSource(inputStream);
+        return source(inputStream, new Timeout());
     }
 
     public static BufferedSource buffer(Source source) {
@@ -103,6 +146,14 @@ public class Okio {
         return new RealBufferedSource(source);
     }
 
+    /** Like {@link #buffer(Source)}, but reads up to {@code readAheadSize} bytes from {@code source} at a time. */
+    public static BufferedSource buffer(Source source, long readAheadSize) {
+        if(source == null){
+            throw new NullPointerException("source == null");
+        }
+        return new RealBufferedSource(source, readAheadSize);
+    }
+
     public static Sink appendingSink(File file) throws FileNotFoundException {
         if(file == null){
             throw new NullPointerException("file cannot be null!");
@@ -132,12 +183,90 @@ public class Okio {
         if (socket == null) {
             throw new IllegalArgumentException("socket == null");
         }
+        if (socket.getChannel() != null) {
+            return source(socket.getChannel());
+        }
         AsyncTimeout timeout = timeout(socket);
         Source source = source(socket.getInputStream(), timeout);
         return timeout.source(source);
     }
 
-    private static AsyncTimeout timeout(final Socket socket) {
+    /**
+     * Returns a source that reads {@code channel} with scattering reads, filling up to
+     * {@link SegmentList#MAX_VECTOR_SEGMENTS} segments per call. A timeout closes the channel.
+     * {@code channel} must be in blocking mode.
+     */
+    public static Source source(SocketChannel channel) {
+        if (channel == null) throw new IllegalArgumentException("channel == null");
+        if (!channel.isBlocking()) throw new IllegalArgumentException("channel is non-blocking");
+        AsyncTimeout timeout = timeout(channel);
+        return timeout.source(source(channel, timeout));
+    }
+
+    /**
+     * Returns a sink that writes to {@code channel} with gathering writes, draining up to
+     * {@link SegmentList#MAX_VECTOR_SEGMENTS} segments per call. A timeout closes the channel.
+     * {@code channel} must be in blocking mode.
+     */
+    public static Sink sink(SocketChannel channel) {
+        if (channel == null) throw new IllegalArgumentException("channel == null");
+        if (!channel.isBlocking()) throw new IllegalArgumentException("channel is non-blocking");
+        AsyncTimeout timeout = timeout(channel);
+        return timeout.sink(sink(channel, timeout));
+    }
+
+    /**
+     * Returns a source that reads whatever {@code channel} has ready and never waits for more.
+     * {@code channel} must be in non-blocking mode.
+     */
+    public static NonBlockingSource nonBlockingSource(final SocketChannel channel) {
+        if (channel == null) throw new IllegalArgumentException("channel == null");
+        if (channel.isBlocking()) throw new IllegalArgumentException("channel is blocking");
+        return new NonBlockingSource() {
+            @Override public long read(Buffer sink, long byteCount) throws IOException {
+                if (byteCount < 0) {
+                    throw new IllegalArgumentException("byteCount < 0: " + byteCount);
+                }
+                if (byteCount == 0) {
+                    return 0;
+                }
+                return sink.segmentList.readOnce(channel, byteCount);
+            }
+
+            @Override public void close() throws IOException {
+                channel.close();
+            }
+
+            @Override public String toString() {
+                return "nonBlockingSource(" + channel + ")";
+            }
+        };
+    }
+
+    /**
+     * Returns a sink that writes as much as {@code channel} takes without waiting.
+     * {@code channel} must be in non-blocking mode.
+     */
+    public static NonBlockingSink nonBlockingSink(final SocketChannel channel) {
+        if (channel == null) throw new IllegalArgumentException("channel == null");
+        if (channel.isBlocking()) throw new IllegalArgumentException("channel is blocking");
+        return new NonBlockingSink() {
+            @Override public long write(Buffer source, long byteCount) throws IOException {
+                checkOffsetAndCount(source.size(), 0, byteCount);
+                return source.segmentList.writeTo(channel, byteCount);
+            }
+
+            @Override public void close() throws IOException {
+                channel.close();
+            }
+
+            @Override public String toString() {
+                return "nonBlockingSink(" + channel + ")";
+            }
+        };
+    }
+
+    private static AsyncTimeout timeout(final Closeable socket) {
         return new AsyncTimeout() {
             @Override protected IOException newTimeoutException(IOException cause) {
                 InterruptedIOException ioe = new SocketTimeoutException("timeout");
@@ -157,6 +286,58 @@ public class Okio {
         };
     }
 
+    private static Source source(final ScatteringByteChannel channel, final Timeout timeout) {
+        return new Source() {
+            @Override public long read(Buffer sink, long byteCount) throws IOException {
+                if (byteCount < 0) {
+                    throw new IllegalArgumentException("byteCount < 0: " + byteCount);
+                }
+                if (byteCount == 0) {
+                    return 0;
+                }
+                timeout.throwIfReached();
+                return sink.segmentList.readOnce(channel, byteCount);
+            }
+
+            @Override public void close() throws IOException {
+                channel.close();
+            }
+
+            @Override public Timeout timeout() {
+                return timeout;
+            }
+
+            @Override public String toString() {
+                return "source(" + channel + ")";
+            }
+        };
+    }
+
+    private static Sink sink(final GatheringByteChannel channel, final Timeout timeout) {
+        return new Sink() {
+            @Override public void write(Buffer source, long byteCount) throws IOException {
+                checkOffsetAndCount(source.size(), 0, byteCount);
+                timeout.throwIfReached();
+                source.segmentList.writeTo(channel, byteCount);
+            }
+
+            @Override public void flush() throws IOException {
+            }
+
+            @Override public void close() throws IOException {
+                channel.close();
+            }
+
+            @Override public Timeout timeout() {
+                return timeout;
+            }
+
+            @Override public String toString() {
+                return "sink(" + channel + ")";
+            }
+        };
+    }
+
     private static Source source(final InputStream in, final Timeout timeout) {
         if (in == null) throw new IllegalArgumentException("in == null");
         if (timeout == null) throw new IllegalArgumentException("timeout == null");
@@ -169,15 +350,8 @@ public class Okio {
                 if (byteCount == 0) {
                     return 0;
                 }
-//                timeout.throwIfReached();
-                Segment tail = sink.writableSegment(1);
-                int maxToCopy = (int) Math.min(byteCount, Segment.SIZE - tail.rear);
-                int bytesRead = in.read(tail.data, tail.rear, maxToCopy);
-                if (bytesRead == -1) {
-                    return -1;
-                }
-                tail.rear += bytesRead;
-                return bytesRead;
+                timeout.throwIfReached();
+                return sink.segmentList.readOnce(in, byteCount);
             }
 
             @Override public void close() throws IOException {
@@ -187,11 +361,18 @@ public class Okio {
             @Override public Timeout timeout() {
                 return timeout;
             }
+
+            @Override public String toString() {
+                return "source(" + in + ")";
+            }
         };
     }
 
     public static Sink sink(Socket socket) throws IOException {
         if (socket == null) throw new IllegalArgumentException("socket == null");
+        if (socket.getChannel() != null) {
+            return sink(socket.getChannel());
+        }
         AsyncTimeout timeout = timeout(socket);
         Sink sink = sink(socket.getOutputStream(), timeout);
         return timeout.sink(sink);
@@ -212,10 +393,6 @@ public class Okio {
                     timeout.throwIfReached();
                     Segment head = source.segmentList.getFirst();
                     int toCopy = (int) Math.min(byteCount, head.rear - head.front);
-                    System.out.println("okio sink write byteCount " + byteCount);
-                    System.out.println("okio sink write front " + head.front);
-                    System.out.println("okio sink write toCopy " + toCopy);
-                    System.out.println("okio sink write source.size() " + source.size());
                     out.write(head.data, head.front, toCopy);
                     byteCount -= toCopy;
                     source.skip(toCopy);
@@ -16,14 +16,38 @@
 package okio;
 
 import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.RandomAccess;
+import java.util.TreeMap;
 
 /** An indexed set of values that may be read with {@link BufferedSource#select}. */
 public final class Options extends AbstractList<ByteString> implements RandomAccess {
+  /** Marks a trie node that no option ends at, or that has no options below it. */
+  static final int NONE = Integer.MAX_VALUE;
+
   final ByteString[] byteStrings;
 
+  /**
+   * The options compiled into a prefix trie, flattened into one array so that walking it touches
+   * no objects. Each node is laid out as:
+   *
+   * <pre>
+   *   [ index of the option that ends here, or NONE ]
+   *   [ smallest index of any option that ends below here, or NONE ]
+   *   [ child count ]
+   *   [ byte, child node offset ] * child count, in increasing byte order
+   * </pre>
+   *
+   * The root is at offset 0. When several options match, the one listed first wins, so a walk
+   * can stop as soon as no node below it holds a smaller index than the best match so far.
+   */
+  final int[] trie;
+
   private Options(ByteString[] byteStrings) {
     this.byteStrings = byteStrings;
+    this.trie = buildTrie(byteStrings);
   }
 
   public static Options of(ByteString... byteStrings) {
@@ -37,4 +61,59 @@ public final class Options extends AbstractList<ByteString> implements RandomAcc
   @Override public int size() {
     return byteStrings.length;
   }
+
+  private static int[] buildTrie(ByteString[] byteStrings) {
+    Node root = new Node();
+    for (int i = 0; i < byteStrings.length; i++) {
+      ByteString byteString = byteStrings[i];
+      Node node = root;
+      for (int j = 0, size = byteString.size(); j < size; j++) {
+        node.descendant = Math.min(node.descendant, i);
+        int b = byteString.getByte(j) & 0xff;
+        Node child = node.children.get(b);
+        if (child == null) {
+          child = new Node();
+          node.children.put(b, child);
+        }
+        node = child;
+      }
+      node.terminal = Math.min(node.terminal, i);
+    }
+
+    // Lay the nodes out breadth-first. Options can be long, so don't recurse.
+    List<Node> nodes = new ArrayList<>();
+    nodes.add(root);
+    int trieSize = root.flatSize();
+    for (int i = 0; i < nodes.size(); i++) {
+      for (Node child : nodes.get(i).children.values()) {
+        child.offset = trieSize;
+        trieSize += child.flatSize();
+        nodes.add(child);
+      }
+    }
+
+    int[] trie = new int[trieSize];
+    for (Node node : nodes) {
+      int pos = node.offset;
+      trie[pos++] = node.terminal;
+      trie[pos++] = node.descendant;
+      trie[pos++] = node.children.size();
+      for (Map.Entry<Integer, Node> entry : node.children.entrySet()) {
+        trie[pos++] = entry.getKey();
+        trie[pos++] = entry.getValue().offset;
+      }
+    }
+    return trie;
+  }
+
+  private static final class Node {
+    final TreeMap<Integer, Node> children = new TreeMap<>();
+    int terminal = NONE;
+    int descendant = NONE;
+    int offset;
+
+    int flatSize() {
+      return 3 + children.size() * 2;
+    }
+  }
 }
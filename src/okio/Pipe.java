@@ -1,13 +1,23 @@
 package okio;
 
 import java.io.IOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Created by pc on 2018/4/5.
+ *
+ * Waiting is done on {@link #lock}'s conditions rather than the buffer's monitor, so virtual threads
+ * don't pin their carriers, and a writer only wakes readers and a reader only wakes writers.
  */
 public final class Pipe {
     final long maxBufferSize;
     final Buffer buffer = new Buffer();
+    final ReentrantLock lock = new ReentrantLock();
+    /** Signalled when the buffer has room, or the source closes. */
+    final Condition notFull = lock.newCondition();
+    /** Signalled when the buffer has bytes, or the sink closes. */
+    final Condition notEmpty = lock.newCondition();
     boolean sinkClosed;
     boolean sourceClosed;
     private final Sink sink = new PipeSink();
@@ -32,7 +42,8 @@ public final class Pipe {
         final Timeout timeout = new Timeout();
 
         @Override public void write(Buffer source, long byteCount) throws IOException {
-            synchronized (buffer) {
+            lock.lock();
+            try {
                 if (sinkClosed) throw new IllegalStateException("closed");
 
                 while (byteCount > 0) {
@@ -40,31 +51,42 @@ public final class Pipe {
 
                     long bufferSpaceAvailable = maxBufferSize - buffer.size();
                     if (bufferSpaceAvailable == 0) {
-                        timeout.waitUntilNotified(buffer); // Wait until the source drains the buffer.
+                        timeout.awaitSignal(notFull); // Wait until the source drains the buffer.
                         continue;
                     }
 
                     long bytesToWrite = Math.min(bufferSpaceAvailable, byteCount);
                     buffer.write(source, bytesToWrite);
                     byteCount -= bytesToWrite;
-                    buffer.notifyAll(); // Notify the source that it can resume reading.
+                    notEmpty.signal(); // Notify the source that it can resume reading.
                 }
+                if (buffer.size() < maxBufferSize) {
+                    notFull.signal(); // Pass any room that's left on to the next waiting writer.
+                }
+            } finally {
+                lock.unlock();
             }
         }
 
         @Override public void flush() throws IOException {
-            synchronized (buffer) {
+            lock.lock();
+            try {
                 if (sinkClosed) throw new IllegalStateException("closed");
                 if (sourceClosed && buffer.size() > 0) throw new IOException("source is closed");
+            } finally {
+                lock.unlock();
             }
         }
 
         @Override public void close() throws IOException {
-            synchronized (buffer) {
+            lock.lock();
+            try {
                 if (sinkClosed) return;
                 if (sourceClosed && buffer.size() > 0) throw new IOException("source is closed");
                 sinkClosed = true;
-                buffer.notifyAll(); // Notify the source that no more bytes are coming.
+                notEmpty.signalAll(); // Notify the source that no more bytes are coming.
+            } finally {
+                lock.unlock();
             }
         }
 
@@ -77,25 +99,33 @@ public final class Pipe {
         final Timeout timeout = new Timeout();
 
         @Override public long read(Buffer sink, long byteCount) throws IOException {
-            System.out.println("read");
-            synchronized (buffer) {
+            lock.lock();
+            try {
                 if (sourceClosed) throw new IllegalStateException("closed");
 
                 while (buffer.size() == 0) {
                     if (sinkClosed) return -1L;
-                    timeout.waitUntilNotified(buffer); // Wait until the sink fills the buffer.
+                    timeout.awaitSignal(notEmpty); // Wait until the sink fills the buffer.
                 }
 
                 long result = buffer.read(sink, byteCount);
-                buffer.notifyAll(); // Notify the sink that it can resume writing.
+                notFull.signal(); // Notify the sink that it can resume writing.
+                if (buffer.size() > 0) {
+                    notEmpty.signal(); // Pass what's left on to the next waiting reader.
+                }
                 return result;
+            } finally {
+                lock.unlock();
             }
         }
 
         @Override public void close() throws IOException {
-            synchronized (buffer) {
+            lock.lock();
+            try {
                 sourceClosed = true;
-                buffer.notifyAll(); // Notify the sink that no more bytes are desired.
+                notFull.signalAll(); // Notify the sink that no more bytes are desired.
+            } finally {
+                lock.unlock();
             }
         }
 
@@ -103,4 +133,4 @@ public final class Pipe {
             return timeout;
         }
     }
-}
\ No newline at end of file
+}
@@ -3,23 +3,86 @@ package okio;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static okio.Util.checkOffsetAndCount;
 
 /**
  * Created by pc on 2018/1/20.
+ *
+ * Writes behind: bytes stay buffered until the {@link FlushPolicy} says enough have accumulated,
+ * or until {@link #emit} or {@link #flush} is called. Only {@link #flush} flushes downstream.
  */
 public class RealBufferedSink implements BufferedSink {
 
+    /**
+     * Times the delayed flushes of every sink whose policy has a maximum delay. The timer only hands
+     * due flushes to the flusher threads, so a slow sink holds up its own flush and no other until
+     * every flusher is stuck on one.
+     */
+    private static final class Scheduler {
+        static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(daemon("Okio Flush Timer"));
+        static final ExecutorService FLUSHERS = flushers(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+        private static ExecutorService flushers(int threadCount) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), daemon("Okio Flusher"));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+
+        private static ThreadFactory daemon(String name) {
+            return runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
     private Sink sink;
     private Buffer buffer;
+    private final FlushPolicy policy;
+    /** Guards everything below when the scheduler may flush this sink; null otherwise. */
+    private final ReentrantLock lock;
+    private boolean closed;
+    private boolean flushScheduled;
+    /**
+     * Set by a flusher when this sink's delay is up. If the flusher finds the lock held, whoever
+     * holds it flushes as it unlocks.
+     */
+    private volatile boolean flushDue;
+    /** True from a call to {@link #buffer} until the caller next calls this sink. Delayed flushes wait meanwhile. */
+    private boolean bufferLent;
+    /** Why the last scheduled flush failed. The next call throws it. */
+    private IOException scheduledFailure;
 
     public RealBufferedSink(Sink sink) {
-        buffer = new Buffer();
+        this(sink, FlushPolicy.COMPLETE_SEGMENTS);
+    }
+
+    public RealBufferedSink(Sink sink, FlushPolicy policy) {
+        if (sink == null) {
+            throw new IllegalArgumentException("sink == null");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("policy == null");
+        }
+        this.buffer = new Buffer();
         this.sink = sink;
+        this.policy = policy;
+        this.lock = policy.maxDelayNanos != 0 ? new ReentrantLock() : null;
     }
 
     public RealBufferedSink(OutputStream outputStream) {
-        buffer = new Buffer();
-        sink = new Sink() {
+        this(new Sink() {
             @Override
             public void close() throws IOException {
                 outputStream.close();
@@ -27,7 +90,7 @@ public class RealBufferedSink implements BufferedSink {
 
             @Override
             public void write(Buffer data, long length) throws IOException {
-                outputStream.write(data.pop(length).getBytes());
+                data.writeTo(outputStream, length);
             }
 
             @Override
@@ -39,167 +102,355 @@ public class RealBufferedSink implements BufferedSink {
             public Timeout timeout() {
                 return Timeout.NONE;
             }
-        };
+        });
+    }
+
+    /** Takes the lock if the policy needs one, and throws if this sink can't be written. */
+    private void begin() throws IOException {
+        if (lock != null) {
+            lock.lock();
+            bufferLent = false;
+        }
+        if (closed) {
+            end();
+            throw new IllegalStateException("closed");
+        }
+        IOException failure = scheduledFailure;
+        if (failure != null) {
+            scheduledFailure = null;
+            end();
+            throw failure;
+        }
     }
 
+    /**
+     * Releases the lock, if any. Before it does, flushes the sink if its delay is up, or schedules a
+     * flush if bytes are buffered and none is scheduled.
+     */
+    private void end() {
+        if (lock == null) {
+            return;
+        }
+        while (true) {
+            boolean deferred = bufferLent || closed;
+            if (!deferred) {
+                if (flushDue) {
+                    flushDelayed();
+                }
+                if (!flushScheduled && scheduledFailure == null && buffer.size() > 0) {
+                    flushScheduled = true;
+                    Scheduler.TIMER.schedule(this::delayElapsed, policy.maxDelayNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+            lock.unlock();
+            // A flusher that became due after the check above, and found the lock held, left its flush to us.
+            if (deferred || !flushDue || !lock.tryLock()) {
+                return;
+            }
+        }
+    }
+
+    /** Emits whatever the policy asks for after a write. */
+    private void emitIfDue() throws IOException {
+        long byteCount = policy.emitByteCount(buffer);
+        if (byteCount > 0) {
+            sink.write(buffer, byteCount);
+        }
+    }
+
+    private void delayElapsed() {
+        Scheduler.FLUSHERS.execute(() -> {
+            flushDue = true;
+            if (lock.tryLock()) {
+                end();
+            }
+        });
+    }
+
+    private void flushDelayed() {
+        flushDue = false;
+        flushScheduled = false;
+        try {
+            if (buffer.size() > 0) {
+                sink.write(buffer, buffer.size());
+                sink.flush();
+            }
+        } catch (IOException e) {
+            scheduledFailure = e;
+        }
+    }
 
     @Override
     public void close() throws IOException {
-        IOException toThrow = null;
-        try {
-            flush();
-        }catch (IOException e){
-            toThrow = e;
+        if (lock != null) {
+            lock.lock();
         }
-        if(toThrow != null){
-            try{
+        try {
+            if (closed) {
+                return;
+            }
+            // Emit buffered bytes, then close the sink even if that failed.
+            Throwable thrown = null;
+            try {
+                if (buffer.size() > 0) {
+                    sink.write(buffer, buffer.size());
+                }
+            } catch (Throwable e) {
+                thrown = e;
+            }
+            try {
                 sink.close();
-            }catch (IOException e){
-
+            } catch (Throwable e) {
+                if (thrown == null) {
+                    thrown = e;
+                }
             }
-            throw toThrow;
-        }else{
-            sink.close();
+            closed = true;
+            if (thrown != null) {
+                Util.sneakyRethrow(thrown);
+            }
+        } finally {
+            end();
         }
-
     }
 
     @Override
     public void write(Buffer data, long length) throws IOException {
-        buffer.write(data, length);
-        flush();
+        begin();
+        try {
+            buffer.write(data, length);
+            emitIfDue();
+        } finally {
+            end();
+        }
     }
 
     @Override
     public void flush() throws IOException {
-        sink.write(buffer, buffer.size());
-    }
-
-    @Override public Timeout timeout() {
-        return sink.timeout();
+        begin();
+        try {
+            if (buffer.size() > 0) {
+                sink.write(buffer, buffer.size());
+            }
+            sink.flush();
+        } finally {
+            end();
+        }
     }
 
-    long totalWriteTime = 0;
-
     @Override
-    public BufferedSink writeUtf8(String s) throws IOException {
-        buffer.writeUtf8(s);
-        writeCompletedSegmentsToSink();
+    public BufferedSink emit() throws IOException {
+        begin();
+        try {
+            if (buffer.size() > 0) {
+                sink.write(buffer, buffer.size());
+            }
+        } finally {
+            end();
+        }
         return this;
     }
 
-    private void writeCompletedSegmentsToSink() throws IOException {
-        long byteCount = buffer.completeSegmentByteCount();
-        if (byteCount > 0) {
-            sink.write(buffer, byteCount);
+    @Override
+    public BufferedSink emitCompleteSegments() throws IOException {
+        begin();
+        try {
+            long byteCount = buffer.completeSegmentByteCount();
+            if (byteCount > 0) {
+                sink.write(buffer, byteCount);
+            }
+        } finally {
+            end();
         }
+        return this;
     }
 
-    public long getTotalWriteTime() {
-        return totalWriteTime;
-    }
-
-    public long getSegmentListWriteTime() {
-        return buffer.getSegmentListWriteTime();
+    @Override public Timeout timeout() {
+        return sink.timeout();
     }
 
-    public long getBufferWriteTime() {
-        return buffer.getTotalWriteTime();
+    @Override
+    public BufferedSink writeUtf8(String s) throws IOException {
+        begin();
+        try {
+            buffer.writeUtf8(s);
+            emitIfDue();
+        } finally {
+            end();
+        }
+        return this;
     }
 
     @Override
     public long writeAll(Source source) throws IOException {
+        if (source == null) {
+            throw new IllegalArgumentException("source == null");
+        }
+        // With a lock, read outside it: a slow source must not hold up the scheduled flushes.
+        Buffer target = lock != null ? new Buffer() : buffer;
         long result = 0;
-        while(true){
-            long increment = source.read(buffer, Segment.SIZE);
-            if(increment > 0){
-                result += increment;
-            }
-            if(increment < Segment.SIZE){
+        while (true) {
+            long read = source.read(target, Segment.SIZE);
+            if (read == -1) {
                 return result;
             }
+            begin();
+            try {
+                if (target != buffer) {
+                    buffer.write(target, read);
+                }
+                result += read;
+                emitIfDue();
+            } finally {
+                end();
+            }
         }
     }
 
     @Override
     public BufferedSink write(byte[] bytes) throws IOException {
-        buffer.write(bytes);
-        writeCompletedSegmentsToSink();
+        begin();
+        try {
+            buffer.write(bytes);
+            emitIfDue();
+        } finally {
+            end();
+        }
         return this;
     }
 
     @Override
     public void writeByte(byte b) throws IOException {
-        buffer.writeByte(b);
-        writeCompletedSegmentsToSink();
+        begin();
+        try {
+            buffer.writeByte(b);
+            emitIfDue();
+        } finally {
+            end();
+        }
     }
 
     @Override
     public void writeShort(short s) throws IOException {
-        buffer.writeShort(s);
-        writeCompletedSegmentsToSink();
+        begin();
+        try {
+            buffer.writeShort(s);
+            emitIfDue();
+        } finally {
+            end();
+        }
     }
 
     @Override
     public void writeShortLe(short s) throws IOException {
-        buffer.writeShortLe(s);
-        writeCompletedSegmentsToSink();
+        begin();
+        try {
+            buffer.writeShortLe(s);
+            emitIfDue();
+        } finally {
+            end();
+        }
     }
 
     @Override
     public void writeInt(int i) throws IOException {
-        buffer.writeInt(i);
-        writeCompletedSegmentsToSink();
+        begin();
+        try {
+            buffer.writeInt(i);
+            emitIfDue();
+        } finally {
+            end();
+        }
     }
 
     @Override
     public void writeIntLe(int i) throws IOException {
-        buffer.writeIntLe(i);
-        writeCompletedSegmentsToSink();
+        begin();
+        try {
+            buffer.writeIntLe(i);
+            emitIfDue();
+        } finally {
+            end();
+        }
     }
 
     @Override
     public void writeLong(long l) throws IOException {
-        buffer.writeLong(l);
-        writeCompletedSegmentsToSink();
+        begin();
+        try {
+            buffer.writeLong(l);
+            emitIfDue();
+        } finally {
+            end();
+        }
     }
 
     @Override
     public void writeLongLe(long l) throws IOException {
-        buffer.writeLongLe(l);
-        writeCompletedSegmentsToSink();
+        begin();
+        try {
+            buffer.writeLongLe(l);
+            emitIfDue();
+        } finally {
+            end();
+        }
     }
 
     @Override
     public BufferedSink write(ByteString byteString) throws IOException {
-        buffer.write(byteString.getData());
-        writeCompletedSegmentsToSink();
+        begin();
+        try {
+            buffer.write(byteString);
+            emitIfDue();
+        } finally {
+            end();
+        }
         return this;
     }
 
     @Override
     public void writeUtf8(String string, int startIndex, int endIndex) throws IOException {
-        buffer.writeUtf8(string, startIndex, endIndex);
-        writeCompletedSegmentsToSink();
+        begin();
+        try {
+            buffer.writeUtf8(string, startIndex, endIndex);
+            emitIfDue();
+        } finally {
+            end();
+        }
     }
 
     @Override
     public void writeString(String string, Charset charset) throws IOException {
-        buffer.write(string.getBytes(charset));
-        writeCompletedSegmentsToSink();
+        begin();
+        try {
+            buffer.writeString(string, charset);
+            emitIfDue();
+        } finally {
+            end();
+        }
     }
 
     @Override
     public void writeString(String string, int start, int end, Charset charset) throws IOException {
-        buffer.write(string.substring(start, end).getBytes(charset));
-        writeCompletedSegmentsToSink();
+        begin();
+        try {
+            buffer.writeString(string, start, end, charset);
+            emitIfDue();
+        } finally {
+            end();
+        }
     }
 
     @Override
     public long write(Source source, long length) throws IOException {
-        long result = buffer.write(source, length);
-        writeCompletedSegmentsToSink();
-        return result;
+        begin();
+        try {
+            long result = buffer.write(source, length);
+            emitIfDue();
+            return result;
+        } finally {
+            end();
+        }
     }
 
     @Override
@@ -207,52 +458,79 @@ public class RealBufferedSink implements BufferedSink {
         return new OutputStream() {
             @Override
             public void write(int b) throws IOException {
-                buffer.writeByte((byte) b);
+                writeByte((byte) b);
+            }
+
+            @Override
+            public void write(byte[] data, int offset, int byteCount) throws IOException {
+                checkOffsetAndCount(data.length, offset, byteCount);
+                begin();
+                try {
+                    buffer.write(data, offset, byteCount);
+                    emitIfDue();
+                } finally {
+                    end();
+                }
             }
 
             @Override
             public void flush() throws IOException {
-                sink.write(buffer, buffer.size());
+                RealBufferedSink.this.flush();
             }
 
             @Override
-            public void write(byte b[], int off, int len) throws IOException {
-                if (b == null) {
-                    throw new NullPointerException();
-                } else if ((off < 0) || (off > b.length) || (len < 0) ||
-                        ((off + len) > b.length) || ((off + len) < 0)) {
-                    throw new ArrayIndexOutOfBoundsException();
-                } else if (len == 0) {
-                    return;
-                }
-                for (int i = 0 ; i < len ; i++) {
-                    write(b[off + i]);
-                }
+            public void close() throws IOException {
+                RealBufferedSink.this.close();
+            }
+
+            @Override
+            public String toString() {
+                return RealBufferedSink.this + ".outputStream()";
             }
         };
     }
 
     @Override
     public BufferedSink writeDecimalLong(long value) throws IOException {
-        buffer.writeDecimalLong(value);
-        writeCompletedSegmentsToSink();
+        begin();
+        try {
+            buffer.writeDecimalLong(value);
+            emitIfDue();
+        } finally {
+            end();
+        }
         return this;
     }
 
-
     @Override
     public BufferedSink writeHexadecimalUnsignedLong(long value) throws IOException {
-        buffer.writeHexadecimalUnsignedLong(value);
-        writeCompletedSegmentsToSink();
+        begin();
+        try {
+            buffer.writeHexadecimalUnsignedLong(value);
+            emitIfDue();
+        } finally {
+            end();
+        }
         return this;
     }
 
+    /**
+     * If the policy has a maximum delay, bytes written straight to the returned buffer aren't flushed
+     * by the delay until the caller next calls this sink, since a background flush mustn't take
+     * segments the caller may still be filling.
+     */
     @Override
     public Buffer buffer() {
+        if (lock != null) {
+            lock.lock();
+            bufferLent = true;
+            end();
+        }
         return buffer;
     }
 
-    public long getBufferWriteByteTime() {
-        return buffer.writeByteTime;
+    @Override
+    public String toString() {
+        return "buffer(" + sink + ")";
     }
 }
@@ -5,69 +5,61 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
-import java.util.HashSet;
-import java.util.Set;
 
+import static okio.Util.checkArraySize;
 import static okio.Util.checkOffsetAndCount;
 
 /**
  * Created by pc on 2018/1/20.
+ *
+ * Reads from upstream only on demand: each method pulls just enough to answer, in reads of at
+ * most the read-ahead size. Only the methods that return everything, such as {@link #readUtf8()}
+ * and {@link #readByteArray()}, drain the upstream.
  */
 public class RealBufferedSource implements BufferedSource {
 
     private Source source;
     private Buffer buffer;
+    /** The most bytes requested from upstream by each read. */
+    private final long readAheadSize;
     boolean closed;
 
     public RealBufferedSource(Source source) {
-        buffer = new Buffer();
+        this(source, Segment.SIZE);
+    }
+
+    /**
+     * Returns a source that asks {@code source} for up to {@code readAheadSize} bytes at a time.
+     * A larger window means fewer upstream reads for bulk data, at the cost of buffering bytes the
+     * caller may never ask for.
+     */
+    public RealBufferedSource(Source source, long readAheadSize) {
+        if (readAheadSize < 1) {
+            throw new IllegalArgumentException("readAheadSize < 1: " + readAheadSize);
+        }
+        this.buffer = new Buffer();
         this.source = source;
+        this.readAheadSize = readAheadSize;
     }
 
     public RealBufferedSource(InputStream inputStream) {
-        buffer = new Buffer();
-        source = new Source() {
-            @Override
-            public long read(Buffer data, long length) throws IOException {
-                long size = length;
-                if(inputStream.available() <= 0){
-                    return -1;
-                }
-                if(length > inputStream.available()){
-                    size = inputStream.available();
-                }
-                // TODO
-                byte[] bytes = new byte[(int) size];
-                inputStream.read(bytes);
-                data.write(bytes);
-                return buffer.size();
-            }
-
-            @Override
-            public void close() throws IOException {
-                inputStream.close();
-            }
-
-            @Override
-            public Timeout timeout() {
-                return Timeout.NONE;
-            }
-        };
+        this(Okio.source(inputStream));
     }
 
-
     @Override
     public long read(Buffer data, long length) throws IOException {
         if (length < 0) {
             throw new IllegalArgumentException("byteCount < 0: " + length);
         }
-        long result = 0;
-        try{
-            result = buffer.write(source, length);
-        }catch (EOFException e){
-
+        if (closed) {
+            throw new IOException("closed");
         }
-        return buffer.read(data, length);
+        if (buffer.size() == 0) {
+            if (source.read(buffer, readAheadSize) == -1) {
+                return -1;
+            }
+        }
+        return buffer.read(data, Math.min(length, buffer.size()));
     }
 
     @Override
@@ -88,15 +80,9 @@ public class RealBufferedSource implements BufferedSource {
     }
 
     @Override
-    public String readUtf8(int length) throws IOException {
-        if (length < 0) {
-            throw new IllegalArgumentException("byteCount < 0: " + length);
-        }
-        long extra = length - buffer.size();
-        if(extra > 0){
-            buffer.write(source, extra);
-        }
-        return buffer.readUtf8(length);
+    public String readUtf8(long byteCount) throws IOException {
+        require(checkArraySize(byteCount));
+        return buffer.readUtf8(byteCount);
     }
 
     @Override
@@ -124,9 +110,18 @@ public class RealBufferedSource implements BufferedSource {
 
     @Override
     public void skip(long count) throws IOException {
-        require(count);
-        long toSkip = Math.min(count, buffer.size());
-        buffer.skip(toSkip);
+        if (closed) {
+            throw new IOException("closed");
+        }
+        // Skip what's buffered as it arrives, rather than buffering all of it first.
+        while (count > 0) {
+            if (buffer.size() == 0 && source.read(buffer, readAheadSize) == -1) {
+                throw new EOFException();
+            }
+            long toSkip = Math.min(count, buffer.size());
+            buffer.skip(toSkip);
+            count -= toSkip;
+        }
     }
 
     @Override
@@ -161,27 +156,30 @@ public class RealBufferedSource implements BufferedSource {
     }
 
     @Override
-    public int readAll(Sink sink) throws IOException {
-        loadAllSourceIntoBuffer();
-        int result = buffer.size();
-        if(buffer.size() > 0){
-            sink.write(buffer, buffer.size());
+    public long readAll(Sink sink) throws IOException {
+        if (sink == null) {
+            throw new IllegalArgumentException("sink == null");
         }
-        return result;
-    }
-
-    private void loadAllSourceIntoBuffer() throws IOException {
-        while (true) {
-            if(source.read(buffer, Segment.SIZE) == -1){
-                break;
+        // Pass complete segments on as they fill, so at most a read-ahead window is held at once.
+        long result = 0;
+        while (source.read(buffer, readAheadSize) != -1) {
+            long emitByteCount = buffer.completeSegmentByteCount();
+            if (emitByteCount > 0) {
+                result += emitByteCount;
+                sink.write(buffer, emitByteCount);
             }
         }
+        if (buffer.size() > 0) {
+            result += buffer.size();
+            sink.write(buffer, buffer.size());
+        }
+        return result;
     }
 
     @Override
     public void readFully(Buffer sink, long length) throws IOException {
         while (buffer.size() < length){
-            if(source.read(buffer, Segment.SIZE) == -1){
+            if(source.read(buffer, readAheadSize) == -1){
                 buffer.readFully(sink, length);
                 throw new EOFException();
             }
@@ -191,8 +189,7 @@ public class RealBufferedSource implements BufferedSource {
 
     @Override
     public void readFully(byte[] sink) throws IOException {
-        loadAllSourceIntoBuffer();
-        if(buffer.size() < sink.length){
+        if(!request(sink.length)){
             buffer.read(sink);
             throw new EOFException();
         }
@@ -206,7 +203,7 @@ public class RealBufferedSource implements BufferedSource {
 
     @Override
     public byte[] readByteArray() throws IOException {
-        loadAllSourceIntoBuffer();
+        buffer.writeAll(source);
         return buffer.readByteArray();
     }
 
@@ -218,7 +215,7 @@ public class RealBufferedSource implements BufferedSource {
         checkOffsetAndCount(sink.length, offset, byteCount);
 
         if (buffer.size() == 0) {
-            long count = source.read(buffer, Segment.SIZE);
+            long count = source.read(buffer, readAheadSize);
             if (count == -1) {
                 return -1;
             }
@@ -228,11 +225,9 @@ public class RealBufferedSource implements BufferedSource {
     }
 
     @Override
-    public byte[] readByteArray(int count) throws IOException {
-        byte[] result = new byte[count];
-        request(count);
-        read(result);
-        return result;
+    public byte[] readByteArray(long byteCount) throws IOException {
+        require(checkArraySize(byteCount));
+        return buffer.readByteArray(byteCount);
     }
 
     @Override
@@ -241,126 +236,131 @@ public class RealBufferedSource implements BufferedSource {
     }
 
     @Override
-    public ByteString readByteString(int count) throws IOException {
-        return new ByteString(readByteArray(count));
+    public ByteString readByteString(long byteCount) throws IOException {
+        return new ByteString(readByteArray(byteCount));
     }
 
     @Override
-    public String readString(int count, Charset charset) throws IOException {
-        return new ByteString(readByteArray(count)).toString(charset);
+    public String readString(long byteCount, Charset charset) throws IOException {
+        require(checkArraySize(byteCount));
+        return buffer.readString(byteCount, charset);
     }
 
     @Override
     public String readString(Charset charset) throws IOException {
-        return new ByteString(readByteArray()).toString(charset);
+        buffer.writeAll(source);
+        return buffer.readString(charset);
     }
 
     @Override
-    public int indexOf(byte b) throws IOException {
-        return indexOf(b, 0, Integer.MAX_VALUE);
+    public long indexOf(byte b) throws IOException {
+        return indexOf(b, 0, Long.MAX_VALUE);
     }
 
     @Override
-    public int indexOf(byte b, int fromIndex) throws IOException {
-        return indexOf(b, fromIndex, Integer.MAX_VALUE);
+    public long indexOf(byte b, long fromIndex) throws IOException {
+        return indexOf(b, fromIndex, Long.MAX_VALUE);
     }
 
+    /**
+     * Searches the buffer, and when it runs out without a match, reads another segment from
+     * upstream and resumes where the previous scan stopped. No byte is scanned twice.
+     */
     @Override
-    public int indexOf(byte b, int fromIndex, int toIndex) throws IOException {
+    public long indexOf(byte b, long fromIndex, long toIndex) throws IOException {
+        if (closed) {
+            throw new IOException("closed");
+        }
         if(fromIndex < 0){
             throw new IllegalArgumentException("fromIndex < 0");
         }
         if(fromIndex > toIndex){
             throw new IllegalArgumentException("Expected failure: fromIndex > toIndex");
         }
-        if(fromIndex == toIndex){
-            return -1;
-        }
-        require(fromIndex);
-        final int initialBufferSize = buffer.size();
-        for(int i = fromIndex; i < toIndex && i < initialBufferSize; i++){
-            if(buffer.getByte(i) == b){
-                return i;
+        long index = fromIndex;
+        while (index < toIndex) {
+            long result = buffer.indexOf(b, index, toIndex);
+            if (result != -1) {
+                return result;
             }
-        }
-        int searchIndex = initialBufferSize - 1;
-        while(true){
-            if(source.read(buffer, 1) == -1){
+            // Search only the bytes that the next read brings in.
+            long lastBufferSize = buffer.size();
+            if (lastBufferSize >= toIndex || source.read(buffer, readAheadSize) == -1) {
                 return -1;
             }
-            searchIndex++;
-            if(buffer.getByte(buffer.size() - 1) == b && searchIndex < toIndex){
-                return searchIndex;
-            }
+            index = Math.max(index, lastBufferSize);
         }
+        return -1;
     }
 
     @Override
-    public int indexOf(ByteString byteString) throws IOException {
+    public long indexOf(ByteString byteString) throws IOException {
         return indexOf(byteString, 0);
     }
 
+    /**
+     * Like {@link #indexOf(byte, long, long)}, but after each read the scan resumes
+     * {@code byteString.size() - 1} bytes before the old end of the buffer, where a match that
+     * straddles the new bytes could start.
+     */
     @Override
-    public int indexOf(ByteString byteString, int fromIndex) throws IOException {
-        if(byteString == null || byteString.getData().length == 0){
+    public long indexOf(ByteString byteString, long fromIndex) throws IOException {
+        if(byteString == null || byteString.size() == 0){
             throw new IllegalArgumentException("bytes is empty");
         }
         if(fromIndex < 0){
             throw new IllegalArgumentException("fromIndex < 0");
         }
-        if(!request(byteString.getData().length)){
-            return -1;
+        if (closed) {
+            throw new IOException("closed");
         }
-        for(int i = fromIndex; i <= buffer.size() - byteString.getData().length; i++){
-            if(bufferMatchIndex(byteString, i)){
-                return i;
+        long index = fromIndex;
+        while (true) {
+            long result = buffer.indexOf(byteString, index);
+            if (result != -1) {
+                return result;
             }
-        }
-        while(source.read(buffer, 1) != -1){
-            if(bufferMatchIndex(byteString, buffer.size() - byteString.getData().length)){
-                return buffer.size() - byteString.getData().length;
+            long lastBufferSize = buffer.size();
+            if (source.read(buffer, readAheadSize) == -1) {
+                return -1;
             }
+            index = Math.max(index, lastBufferSize - byteString.size() + 1);
         }
-        return -1;
     }
 
-    private boolean bufferMatchIndex(ByteString byteString, int index) {
-        for(int i = index; i < buffer.size(); i++){
-            if(i - index >= byteString.getData().length){
-                return true;
-            }
-            if(buffer.getByte(i) != byteString.getData()[i - index]){
-                return false;
-            }
-        }
-        return true;
+    @Override
+    public long indexOfElement(ByteString byteString) throws IOException {
+        return indexOfElement(byteString, 0);
     }
 
     @Override
-    public int indexOfElement(ByteString byteString) throws IOException {
-        return indexOfElement(byteString, 0);
+    public long indexOfElement(ByteString byteString, long fromIndex) throws IOException {
+        return indexOfElement(ByteSet.of(byteString), fromIndex);
     }
 
     @Override
-    public int indexOfElement(ByteString byteString, int fromIndex) throws IOException {
-        if(!request(fromIndex)){
-            return -1;
-        }
-        Set<Byte> bytesSet = new HashSet<>();
-        for(byte b : byteString.getData()){
-            bytesSet.add(b);
+    public long indexOfElement(ByteSet byteSet) throws IOException {
+        return indexOfElement(byteSet, 0);
+    }
+
+    @Override
+    public long indexOfElement(ByteSet byteSet, long fromIndex) throws IOException {
+        if (closed) {
+            throw new IOException("closed");
         }
-        for(int i = fromIndex; i < buffer.size(); i++){
-            if(bytesSet.contains(buffer.getByte(i))){
-                return i;
+        long index = fromIndex;
+        while (true) {
+            long result = buffer.indexOfElement(byteSet, index);
+            if (result != -1) {
+                return result;
             }
-        }
-        while(source.read(buffer, 1) != -1){
-            if(bytesSet.contains(buffer.getByte(buffer.size() - 1))){
-                return buffer.size() - 1;
+            // Search only the bytes that the next read brings in.
+            long lastBufferSize = buffer.size();
+            if (source.read(buffer, readAheadSize) == -1) {
+                return -1;
             }
+            index = Math.max(index, lastBufferSize);
         }
-        return -1;
     }
 
     @Override
@@ -369,7 +369,7 @@ public class RealBufferedSource implements BufferedSource {
             throw new IllegalArgumentException("byteCount < 0: " + byteCount);
         }
         while (buffer.size() < byteCount) {
-            if (source.read(buffer, Segment.SIZE) == -1) {
+            if (source.read(buffer, readAheadSize) == -1) {
                 return false;
             }
         }
@@ -387,7 +387,6 @@ public class RealBufferedSource implements BufferedSource {
     public InputStream inputStream() {
         return new InputStream() {
             @Override public int read() throws IOException {
-                System.out.println("read");
                 if (closed) {
                     throw new IOException("closed");
                 }
@@ -413,7 +412,7 @@ public class RealBufferedSource implements BufferedSource {
                 if (closed) {
                     throw new IOException("closed");
                 }
-                return buffer.size();
+                return (int) Math.min(buffer.size(), Integer.MAX_VALUE);
             }
 
             @Override public void close() throws IOException {
@@ -429,7 +428,7 @@ public class RealBufferedSource implements BufferedSource {
     @Override
     public long readHexadecimalUnsignedLong() throws IOException {
         require(1);
-        for (int pos = 0; request(pos + 1); pos++) {
+        for (long pos = 0; request(pos + 1); pos++) {
             byte b = buffer.getByte(pos);
             if ((b < '0' || b > '9') && (b < 'a' || b > 'f') && (b < 'A' || b > 'F')) {
                 if (pos == 0) {
@@ -445,7 +444,7 @@ public class RealBufferedSource implements BufferedSource {
     @Override
     public long readDecimalLong() throws IOException {
         require(1);
-        for (int pos = 0; request(pos + 1); pos++) {
+        for (long pos = 0; request(pos + 1); pos++) {
             byte b = buffer.getByte(pos);
             if ((b < '0' || b > '9') && (pos != 0 || b != '-')) {
                 if (pos == 0) {
@@ -459,16 +458,16 @@ public class RealBufferedSource implements BufferedSource {
     }
 
     @Override
-    public boolean rangeEquals(int offset, ByteString byteString) throws IOException {
-        return rangeEquals(offset, byteString, 0, byteString.getData().length);
+    public boolean rangeEquals(long offset, ByteString byteString) throws IOException {
+        return rangeEquals(offset, byteString, 0, byteString.size());
     }
 
     @Override
-    public boolean rangeEquals(int offset, ByteString bytes, int bytesOffset, int byteCount) throws IOException {
-        if(bytesOffset < 0 || byteCount < 0){
+    public boolean rangeEquals(long offset, ByteString bytes, int bytesOffset, int byteCount) throws IOException {
+        if(offset < 0 || bytesOffset < 0 || byteCount < 0){
             return false;
         }
-        if(byteCount > bytes.getData().length - bytesOffset){
+        if(byteCount > bytes.size() - bytesOffset || offset > Long.MAX_VALUE - byteCount){
             return false;
         }
         if(!request(offset + byteCount)){
@@ -479,37 +478,37 @@ public class RealBufferedSource implements BufferedSource {
 
     @Override
     public int select(Options options) throws IOException {
-        while (true) {
-            int index = buffer.selectPrefix(options);
-            if (index == -1) {
-                return -1;
-            }
-
-            int selectedSize = options.byteStrings[index].getData().length;
-            if (selectedSize <= buffer.size()) {
-                buffer.skip(selectedSize);
-                return index;
-            }
-            if (source.read(buffer, Segment.SIZE) == -1) {
-                return -1;
+        if (closed) {
+            throw new IOException("closed");
+        }
+        int index;
+        // Only load more when the trie can't decide with what is buffered.
+        while ((index = buffer.selectPrefix(options, true)) == -2) {
+            if (source.read(buffer, readAheadSize) == -1) {
+                index = buffer.selectPrefix(options, false);
+                break;
             }
         }
+        if (index != -1) {
+            buffer.skip(options.byteStrings[index].size());
+        }
+        return index;
     }
 
     @Override public String readUtf8LineStrict() throws IOException {
-        return readUtf8LineStrict(Integer.MAX_VALUE);
+        return readUtf8LineStrict(Long.MAX_VALUE);
     }
 
-    @Override public String readUtf8LineStrict(int limit) throws IOException {
+    @Override public String readUtf8LineStrict(long limit) throws IOException {
         if (limit < 0) {
             throw new IllegalArgumentException("limit < 0: " + limit);
         }
-        long scanLength = limit == Integer.MAX_VALUE ? Integer.MAX_VALUE : limit + 1;
-        long newline = indexOf((byte) '\n', 0, (int) scanLength);
+        long scanLength = limit == Long.MAX_VALUE ? Long.MAX_VALUE : limit + 1;
+        long newline = indexOf((byte) '\n', 0, scanLength);
         if (newline != -1) {
             return buffer.readUtf8Line(newline);
         }
-        if (scanLength < Integer.MAX_VALUE
+        if (scanLength < Long.MAX_VALUE
                 && request(scanLength) && buffer.getByte(scanLength - 1) == '\r'
                 && request(scanLength + 1) && buffer.getByte(scanLength) == '\n') {
             return buffer.readUtf8Line(scanLength);
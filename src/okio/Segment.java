@@ -1,5 +1,8 @@
 package okio;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * Created by pc on 2018/1/27.
  */
@@ -7,6 +10,9 @@ public class Segment {
 
     public static final int SIZE = 8192;
 
+    /** Segments will be shared when doing so avoids {@code arraycopy()} of this many bytes. */
+    static final int SHARE_MINIMUM = 1024;
+
     public final byte[] data;
 
     public int front = 0;
@@ -21,6 +27,12 @@ public class Segment {
 
     Segment next;
 
+    /** Wraps {@link #data} for channel reads and writes. Created on first use. */
+    private ByteBuffer byteBuffer;
+
+    /** A little-endian view of {@link #data} for scanning it a word at a time. Created on first use. */
+    private ByteBuffer words;
+
     Segment() {
         this.data = new byte[SIZE];
     }
@@ -33,4 +45,129 @@ public class Segment {
         this.front = segment.front;
         this.rear = segment.rear;
     }
+
+    /**
+     * Returns a new segment that shares this segment's data. Both are marked shared, so neither
+     * will be recycled and the bytes between {@code front} and {@code rear} are never written again.
+     * If this segment is the owner it may still append past its own {@code rear}.
+     */
+    Segment sharedCopy() {
+        return new Segment(this);
+    }
+
+    /**
+     * Returns a buffer over {@code data} from {@code pos} to {@code limit}. The same buffer is
+     * returned on every call, so each call undoes the previous one's bounds.
+     */
+    ByteBuffer byteBuffer(int pos, int limit) {
+        ByteBuffer result = byteBuffer;
+        if (result == null) {
+            result = byteBuffer = ByteBuffer.wrap(data);
+        }
+        // Through java.nio.Buffer so the calls link against Java 8's limit(int) and position(int).
+        ((java.nio.Buffer) result).limit(limit);
+        ((java.nio.Buffer) result).position(pos);
+        return result;
+    }
+
+    /**
+     * Returns a little-endian view of all of {@code data}. Read it with absolute gets only; its
+     * position and limit are never moved, so the same view serves every caller.
+     */
+    ByteBuffer words() {
+        ByteBuffer result = words;
+        if (result == null) {
+            result = words = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return result;
+    }
+
+    /**
+     * Removes this segment from its ring and returns the segment that followed it, or null if it
+     * was the only one.
+     */
+    Segment pop() {
+        Segment result = next != this ? next : null;
+        prev.next = next;
+        next.prev = prev;
+        next = null;
+        prev = null;
+        return result;
+    }
+
+    /** Links {@code segment} into the ring right after this one and returns it. */
+    Segment push(Segment segment) {
+        segment.prev = this;
+        segment.next = next;
+        next.prev = segment;
+        next = segment;
+        return segment;
+    }
+
+    /**
+     * Splits this segment into two, so that the first {@code byteCount} bytes are in a new segment
+     * linked just before this one. Returns the new head.
+     */
+    Segment split(int byteCount) {
+        if (byteCount <= 0 || byteCount > rear - front) {
+            throw new IllegalArgumentException();
+        }
+        Segment prefix;
+
+        // Sharing avoids a copy, but a shared segment is read-only: nothing can be compacted into
+        // it, so short shared segments fragment a buffer. Only share when the copy would be large.
+        if (byteCount >= SHARE_MINIMUM) {
+            prefix = sharedCopy();
+        } else {
+            prefix = SegmentPool.getSegment();
+            System.arraycopy(data, front, prefix.data, 0, byteCount);
+        }
+        prefix.rear = prefix.front + byteCount;
+        front += byteCount;
+        prev.push(prefix);
+        return prefix;
+    }
+
+    /**
+     * Moves this segment's bytes into its predecessor if they fit, then removes and recycles this
+     * segment. This keeps a ring from filling up with mostly-empty segments.
+     */
+    void compact() {
+        if (prev == this) {
+            throw new IllegalStateException();
+        }
+        if (!prev.isOwner) {
+            return; // Cannot compact: prev isn't writable.
+        }
+        int byteCount = rear - front;
+        int availableByteCount = SIZE - prev.rear + (prev.isShared ? 0 : prev.front);
+        if (byteCount > availableByteCount) {
+            return; // Cannot compact: not enough writable space.
+        }
+        writeTo(prev, byteCount);
+        pop();
+        SegmentPool.recycle(this);
+    }
+
+    /** Moves {@code byteCount} bytes from this segment to the end of {@code sink}. */
+    void writeTo(Segment sink, int byteCount) {
+        if (!sink.isOwner) {
+            throw new IllegalArgumentException();
+        }
+        if (sink.rear + byteCount > SIZE) {
+            // We can't fit byteCount bytes at the sink's current position. Shift sink first.
+            if (sink.isShared) {
+                throw new IllegalArgumentException();
+            }
+            if (sink.rear + byteCount - sink.front > SIZE) {
+                throw new IllegalArgumentException();
+            }
+            System.arraycopy(sink.data, sink.front, sink.data, 0, sink.rear - sink.front);
+            sink.rear -= sink.front;
+            sink.front = 0;
+        }
+        System.arraycopy(data, front, sink.data, sink.rear, byteCount);
+        sink.rear += byteCount;
+        front += byteCount;
+    }
 }
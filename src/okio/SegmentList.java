@@ -1,290 +1,737 @@
 package okio;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.charset.Charset;
 import java.util.*;
 
 /**
  * Created by pc on 2018/1/28.
+ *
+ * A circular, doubly-linked ring of segments threaded through {@link Segment#prev} and
+ * {@link Segment#next}. The head's prev is the tail. The readable byte count is cached in
+ * {@link #size} so that callers never have to walk the ring to learn how much is buffered.
  */
 public class SegmentList implements Cloneable {
 
-    private LinkedList<Segment> segmentList = new LinkedList<>();
+    /** Needles at least this long are searched for with a skip table. */
+    private static final int HORSPOOL_MINIMUM = 8;
 
-    SegmentList(SegmentList segmentList) {
-        this.segmentList = segmentList.segmentList;
+    /** Building the skip table only pays off when there are at least this many bytes to search. */
+    private static final int HORSPOOL_MINIMUM_HAYSTACK = 1024;
+
+    private static final char REPLACEMENT_CHARACTER = '\ufffd';
+
+    /** The most segments handed to a single gathering write or scattering read. */
+    static final int MAX_VECTOR_SEGMENTS = 16;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /** Scratch space for decoding up to a segment's worth of UTF-8. */
+    private static final ThreadLocal<char[]> UTF8_CHARS = ThreadLocal.withInitial(() -> new char[Segment.SIZE]);
+
+    /** Scratch space for the skip table of one Boyer-Moore-Horspool search. */
+    private static final ThreadLocal<int[]> HORSPOOL_SKIPS = ThreadLocal.withInitial(() -> new int[256]);
+
+    /** Scratch arrays for one scattering read or gathering write. */
+    private static final class IoVector {
+        final Segment[] segments = new Segment[MAX_VECTOR_SEGMENTS];
+        final ByteBuffer[] buffers = new ByteBuffer[MAX_VECTOR_SEGMENTS];
     }
 
+    private static final ThreadLocal<IoVector> IO_VECTORS = ThreadLocal.withInitial(IoVector::new);
+
+    /** The first segment of the ring, or null if this list holds no segments. */
+    Segment head;
+
+    /** Readable bytes in this list, not counting bytes appended to the tail since the last sync. */
+    long size;
+
+    /**
+     * The tail's rear as of the last call to {@link #syncTail}. Bytes are appended by writing into
+     * the segment returned by {@link #getWritableSegment} and bumping its rear, so {@link #size} is
+     * brought up to date lazily rather than on every such write.
+     */
+    private int tailRear;
+
     SegmentList() {
 
     }
 
-    private SegmentList(LinkedList<Segment> newSegmentList) {
-        this.segmentList = newSegmentList;
+    public SegmentList clone(){
+        SegmentList result = new SegmentList();
+        if(head == null){
+            return result;
+        }
+        syncTail();
+        Segment segment = head;
+        do{
+            result.push(segment.sharedCopy());
+            segment = segment.next;
+        }while(segment != head);
+        return result;
     }
 
-    public SegmentList clone(){
-        LinkedList<Segment> newSegmentList = new LinkedList<>();
-        for(Segment segment : segmentList){
-            add(newSegmentList, SegmentPool.getSegment(segment));
+    /** Adds the tail's newly-written bytes to {@link #size}. */
+    private void syncTail() {
+        if(head != null){
+            Segment tail = head.prev;
+            size += tail.rear - tailRear;
+            tailRear = tail.rear;
         }
-        return new SegmentList(newSegmentList);
     }
 
-    private void add(LinkedList<Segment> segmentList, Segment toAdd) {
-        if(segmentList.size() > 0){
-            toAdd.prev = segmentList.getLast();
-            segmentList.getLast().next = toAdd;
+    /** Links {@code segment} in as the new tail of the ring. */
+    private void push(Segment segment) {
+        syncTail();
+        if(head == null){
+            head = segment;
+            segment.next = segment;
+            segment.prev = segment;
+        }else{
+            head.prev.push(segment);
         }
-        segmentList.add(toAdd);
+        size += segment.rear - segment.front;
+        tailRear = segment.rear;
     }
 
-    void write(byte[] bytes) {
-        write(bytes, 0, bytes.length);
+    /** Unlinks the head segment and returns it to the pool. Callers account for its bytes. */
+    private void pop() {
+        Segment result = head;
+        head = result.pop();
+        SegmentPool.recycle(result);
     }
 
-    void remove(long length) {
-        int removed = 0;
-        while(removed < length){
-            if(segmentList.size() == 0){
-                return;
-            }
-            Segment first = segmentList.getFirst();
-            int canRemove = first.rear - first.front;
-            if(canRemove >= length - removed){
-                first.front += length - removed;
-                if(canRemove == length - removed){
-                    remove();
+    /**
+     * Moves {@code byteCount} bytes from the head of {@code source} to the tail of this list.
+     * Whole segments are unlinked from {@code source} and relinked here rather than copied. Only
+     * the source's head is split, when a prefix of it is all that's needed, and a moved segment is
+     * compacted into its new predecessor when the two fit in one.
+     */
+    void write(SegmentList source, long byteCount) {
+        if(source == this){
+            throw new IllegalArgumentException("source == this");
+        }
+        source.syncTail();
+        syncTail();
+        Util.checkOffsetAndCount(source.size, 0, byteCount);
+
+        while(byteCount > 0){
+            // Is a prefix of the source's head segment all that we need to move?
+            if(byteCount < source.head.rear - source.head.front){
+                Segment tail = head != null ? head.prev : null;
+                if(tail != null && tail.isOwner
+                        && byteCount + tail.rear - (tail.isShared ? 0 : tail.front) <= Segment.SIZE){
+                    // Our existing segments are sufficient. Move bytes from source's head to our tail.
+                    source.head.writeTo(tail, (int) byteCount);
+                    source.size -= byteCount;
+                    size += byteCount;
+                    tailRear = tail.rear;
+                    return;
                 }
-                return;
+                // We're going to need another segment. Split the source's head segment in two,
+                // then move the first of those two to this list.
+                source.head = source.head.split((int) byteCount);
             }
-            remove();
-            removed += canRemove;
+
+            // Remove the source's head segment and append it to our tail.
+            Segment segmentToMove = source.head;
+            long movedByteCount = segmentToMove.rear - segmentToMove.front;
+            source.head = segmentToMove.pop();
+            source.size -= movedByteCount;
+            append(segmentToMove);
+            byteCount -= movedByteCount;
         }
     }
 
-    byte read() {
-        while(true){
-            if(segmentList.size() == 0){
-                return -1;
-            }
-            Segment first = segmentList.getFirst();
-            if(first.rear <= first.front){
-                remove();
-                continue;
-            }
-            byte result = first.data[first.front++];
-            if(first.front >= first.rear || first.front >= Segment.SIZE){
-                remove();
-            }
-            return result;
+    /**
+     * Links {@code segment}, which must not be in any ring, in as the new tail, compacting it into
+     * the old tail when its bytes fit there.
+     */
+    void append(Segment segment) {
+        syncTail();
+        int byteCount = segment.rear - segment.front;
+        if(head == null){
+            head = segment;
+            segment.next = segment;
+            segment.prev = segment;
+        }else{
+            head.prev.push(segment).compact();
         }
+        size += byteCount;
+        tailRear = head.prev.rear;
     }
 
-    boolean has(long count) {
-        int counted = 0;
-        for(Segment segment : segmentList){
-            counted += segment.rear - segment.front;
-            if(counted >= count){
-                return true;
+    /**
+     * Unlinks and returns a segment holding the first {@code byteCount} bytes of the head, or the
+     * whole head if it holds no more than that. Only a longer head is split.
+     */
+    Segment takeHead(int byteCount) {
+        syncTail();
+        if(byteCount < head.rear - head.front){
+            head = head.split(byteCount);
+        }
+        Segment result = head;
+        head = result.pop();
+        size -= result.rear - result.front;
+        if(head != null){
+            tailRear = head.prev.rear;
+        }
+        return result;
+    }
+
+    void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    void remove(long length) {
+        syncTail();
+        while(length > 0 && head != null){
+            int toRemove = (int) Math.min(length, head.rear - head.front);
+            head.front += toRemove;
+            size -= toRemove;
+            length -= toRemove;
+            if(head.front == head.rear){
+                pop();
             }
         }
-        return false;
     }
 
-    int available() {
-        int result = 0;
-        for(Segment segment : segmentList){
-            result += segment.rear - segment.front;
+    byte read() {
+        syncTail();
+        if(size == 0){
+            return -1;
+        }
+        while(head.front == head.rear){
+            pop();
+        }
+        Segment first = head;
+        byte result = first.data[first.front++];
+        size--;
+        if(first.front == first.rear){
+            pop();
         }
         return result;
     }
 
+    boolean has(long count) {
+        return available() >= count;
+    }
+
+    long available() {
+        syncTail();
+        return size;
+    }
+
     int read(byte[] sink) {
-        int removed = 0;
-        while(removed < sink.length){
-            if(segmentList.size() == 0){
-                return removed;
-            }
-            Segment first = segmentList.getFirst();
-            int canRemove = first.rear - first.front;
-            if(canRemove >= sink.length - removed){
-                System.arraycopy(first.data, first.front, sink, removed, sink.length - removed);
-                first.front += sink.length - removed;
-                return sink.length;
-            }else{
-                System.arraycopy(first.data, first.front, sink, removed, canRemove);
-                removed += canRemove;
-                remove();
-            }
-        }
-        return sink.length;
+        syncTail();
+        return readInto(sink, 0, sink.length);
     }
 
     int read(byte[] sink, final int offset, final int byteCount) {
-        if(segmentList.size() == 0){
+        syncTail();
+        if(size == 0){
             return -1;
         }
         if(offset + byteCount > sink.length){
             throw new ArrayIndexOutOfBoundsException();
         }
-        int sinkWriteIndex = offset;
-        while(true){
-            if(sinkWriteIndex >= sink.length || sinkWriteIndex - offset >= byteCount || segmentList.size() == 0){
-                return sinkWriteIndex - offset;
+        return readInto(sink, offset, byteCount);
+    }
+
+    private int readInto(byte[] sink, int offset, int byteCount) {
+        int read = 0;
+        while(read < byteCount && head != null){
+            Segment first = head;
+            int toCopy = Math.min(byteCount - read, first.rear - first.front);
+            System.arraycopy(first.data, first.front, sink, offset + read, toCopy);
+            first.front += toCopy;
+            size -= toCopy;
+            read += toCopy;
+            if(first.front == first.rear){
+                pop();
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Decodes and consumes {@code byteCount} bytes of UTF-8. Each maximal prefix of a malformed
+     * sequence, including one cut off by the end of the range, decodes to a single U+FFFD as the
+     * Unicode standard recommends. Up to a segment's worth of bytes is decoded into a per-thread
+     * scratch array, so the returned string is the only allocation.
+     */
+    String readUtf8(int byteCount) {
+        syncTail();
+        if(byteCount == 0){
+            return "";
+        }
+        Segment segment = head;
+        int pos = segment.front;
+
+        // Pure ASCII is the common case and needs no decoding at all.
+        if(isAscii(segment, pos, byteCount)){
+            if(pos + byteCount <= segment.rear){
+                String result = new String(segment.data, pos, byteCount, ISO_8859_1);
+                remove(byteCount);
+                return result;
+            }
+            byte[] bytes = new byte[byteCount];
+            readInto(bytes, 0, byteCount);
+            return new String(bytes, ISO_8859_1);
+        }
+
+        // UTF-8 never decodes to more chars than it has bytes.
+        char[] chars = byteCount <= Segment.SIZE ? UTF8_CHARS.get() : new char[byteCount];
+        int count = 0;
+        int remaining = byteCount;
+        while(remaining > 0){
+            if(pos == segment.rear){
+                segment = segment.next;
+                pos = segment.front;
+                continue;
+            }
+            byte[] data = segment.data;
+
+            // Decode ASCII and well-formed sequences that end within this segment.
+            int limit = Math.min(segment.rear, pos + remaining);
+            int runStart = pos;
+            while(pos < limit){
+                int b0 = data[pos];
+                if(b0 >= 0){
+                    chars[count++] = (char) b0;
+                    pos++;
+                }else if((b0 & 0xe0) == 0xc0 && pos + 1 < limit && (data[pos + 1] & 0xc0) == 0x80
+                        && b0 >= (byte) 0xc2){
+                    chars[count++] = (char) ((b0 & 0x1f) << 6 | (data[pos + 1] & 0x3f));
+                    pos += 2;
+                }else if((b0 & 0xf0) == 0xe0 && pos + 2 < limit && (data[pos + 1] & 0xc0) == 0x80
+                        && (data[pos + 2] & 0xc0) == 0x80){
+                    int c = (b0 & 0x0f) << 12 | (data[pos + 1] & 0x3f) << 6 | (data[pos + 2] & 0x3f);
+                    if(c < 0x800 || (c >= 0xd800 && c <= 0xdfff)){
+                        break;
+                    }
+                    chars[count++] = (char) c;
+                    pos += 3;
+                }else if((b0 & 0xf8) == 0xf0 && pos + 3 < limit && (data[pos + 1] & 0xc0) == 0x80
+                        && (data[pos + 2] & 0xc0) == 0x80 && (data[pos + 3] & 0xc0) == 0x80){
+                    int c = (b0 & 0x07) << 18 | (data[pos + 1] & 0x3f) << 12
+                            | (data[pos + 2] & 0x3f) << 6 | (data[pos + 3] & 0x3f);
+                    if(c < 0x10000 || c > 0x10ffff){
+                        break;
+                    }
+                    chars[count++] = (char) ((c >>> 10) + 0xd7c0);
+                    chars[count++] = (char) ((c & 0x3ff) + 0xdc00);
+                    pos += 4;
+                }else{
+                    break;
+                }
+            }
+            remaining -= pos - runStart;
+            if(pos == limit){
+                continue;
             }
-            Segment first = segmentList.getFirst();
-            if(first.rear - first.front >= byteCount - (sinkWriteIndex - offset)){
-                System.arraycopy(first.data, first.front, sink, sinkWriteIndex, byteCount - (sinkWriteIndex - offset));
-                first.front += byteCount - (sinkWriteIndex - offset);
-                return byteCount;
+
+            int decoded = decodeUtf8Sequence(segment, pos, remaining);
+            int codePoint = decoded & 0xffffff;
+            int consumed = decoded >>> 24;
+            if(codePoint < 0x10000){
+                chars[count++] = (char) codePoint;
             }else{
-                System.arraycopy(first.data, first.front, sink, sinkWriteIndex, first.rear - first.front);
-                sinkWriteIndex += first.rear - first.front;
-                remove();
+                chars[count++] = (char) ((codePoint >>> 10) + 0xd7c0);
+                chars[count++] = (char) ((codePoint & 0x3ff) + 0xdc00);
+            }
+
+            // Step over the sequence, which may straddle one or more segment boundaries.
+            remaining -= consumed;
+            pos += consumed;
+            while(pos > segment.rear){
+                int overflow = pos - segment.rear;
+                segment = segment.next;
+                pos = segment.front + overflow;
             }
         }
+        String result = new String(chars, 0, count);
+        remove(byteCount);
+        return result;
     }
 
-    private void remove() {
-        if(segmentList.size() == 0){
-            return;
+    /**
+     * Decodes the sequence at {@code pos} in {@code segment}, reading across segment boundaries but
+     * no more than {@code remaining} bytes. Returns the code point, or U+FFFD if the sequence is
+     * malformed, in the low 24 bits and the number of bytes it spans in the high 8.
+     */
+    private static int decodeUtf8Sequence(Segment segment, int pos, int remaining) {
+        // A lead byte determines how many continuation bytes follow and the range of the first one,
+        // which rules out overlong encodings, surrogates and code points past U+10FFFF.
+        int b0 = segment.data[pos] & 0xff;
+        int needed;
+        int codePoint;
+        int lower = 0x80;
+        int upper = 0xbf;
+        if(b0 >= 0xc2 && b0 <= 0xdf){
+            needed = 1;
+            codePoint = b0 & 0x1f;
+        }else if(b0 >= 0xe0 && b0 <= 0xef){
+            needed = 2;
+            codePoint = b0 & 0x0f;
+            if(b0 == 0xe0) lower = 0xa0;
+            if(b0 == 0xed) upper = 0x9f;
+        }else if(b0 >= 0xf0 && b0 <= 0xf4){
+            needed = 3;
+            codePoint = b0 & 0x07;
+            if(b0 == 0xf0) lower = 0x90;
+            if(b0 == 0xf4) upper = 0x8f;
+        }else{
+            return 1 << 24 | REPLACEMENT_CHARACTER;
+        }
+
+        int consumed = 1;
+        while(consumed <= needed && consumed < remaining){
+            int b = byteAt(segment, pos, consumed);
+            if(b < lower || b > upper){
+                break;
+            }
+            codePoint = codePoint << 6 | (b & 0x3f);
+            lower = 0x80;
+            upper = 0xbf;
+            consumed++;
         }
-        SegmentPool.recycle(segmentList.getFirst());
-        segmentList.removeFirst();
-        if(segmentList.size() > 0){
-            segmentList.getFirst().prev = null;
+        return consumed << 24 | (consumed <= needed ? REPLACEMENT_CHARACTER : codePoint);
+    }
+
+    /**
+     * Returns true if none of the {@code byteCount} bytes starting at {@code pos} in {@code segment}
+     * has its high bit set. Checks eight bytes at a time and stops at the first one that does.
+     */
+    private static boolean isAscii(Segment segment, int pos, int byteCount) {
+        while(byteCount > 0){
+            int end = Math.min(segment.rear, pos + byteCount);
+            byteCount -= end - pos;
+            byte[] data = segment.data;
+            ByteBuffer words = segment.words();
+            for(; pos <= end - 8; pos += 8){
+                if((words.getLong(pos) & 0x8080808080808080L) != 0){
+                    return false;
+                }
+            }
+            for(; pos < end; pos++){
+                if(data[pos] < 0){
+                    return false;
+                }
+            }
+            segment = segment.next;
+            pos = segment.front;
+        }
+        return true;
+    }
+
+    /** Returns the byte {@code offset} bytes past {@code pos} in {@code segment}, following links. */
+    private static int byteAt(Segment segment, int pos, int offset) {
+        pos += offset;
+        while(pos >= segment.rear){
+            pos -= segment.rear;
+            segment = segment.next;
+            pos += segment.front;
         }
+        return segment.data[pos] & 0xff;
     }
 
-    int indexOf(byte target, int fromIndex, int toIndex) {
+    long indexOf(byte target, long fromIndex, long toIndex) {
         if(fromIndex < 0){
             throw new IllegalArgumentException("fromIndex < 0");
         }
         if(fromIndex > toIndex){
             throw new IllegalArgumentException("Expected failure: fromIndex > toIndex");
         }
-        if(fromIndex == toIndex){
+        syncTail();
+        long limit = Math.min(toIndex, size);
+        if(fromIndex >= limit){
             return -1;
         }
-        int currentSearchIndex = 0;
-        outer: for (Segment segment : segmentList) {
-            for (int i = segment.front; i < segment.rear; i++) {
-                if(segment.rear - segment.front + currentSearchIndex < fromIndex){
-                    currentSearchIndex += segment.rear - segment.front;
-                    continue outer;
-                }
-                if(currentSearchIndex >= toIndex){
-                    return -1;
-                }
-                if (segment.data[i] == target && currentSearchIndex >= fromIndex) {
-                    return currentSearchIndex;
-                }
-                currentSearchIndex++;
+        Segment segment = head;
+        long offset = 0;
+        while(offset + (segment.rear - segment.front) <= fromIndex){
+            offset += segment.rear - segment.front;
+            segment = segment.next;
+        }
+        long index = fromIndex;
+        while(index < limit){
+            int pos = segment.front + (int) (index - offset);
+            int end = segment.front + (int) Math.min(segment.rear - segment.front, limit - offset);
+            pos = indexOf(segment, pos, end, target);
+            if(pos != -1){
+                return pos - segment.front + offset;
+            }
+            offset += segment.rear - segment.front;
+            index = offset;
+            segment = segment.next;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first {@code target} in {@code segment.data[pos..end)}, or -1.
+     * Compares eight bytes at a time, read through the segment's cached {@link Segment#words} view:
+     * each word is XORed with {@code target} repeated in every byte, and the classic
+     * {@code (x - 0x01..) & ~x & 0x80..} test flags the bytes that became zero. Borrows only carry
+     * towards higher bytes, so with the first byte in the lowest bits the lowest flag is always a
+     * real match.
+     */
+    static int indexOf(Segment segment, int pos, int end, byte target) {
+        long pattern = (target & 0xffL) * 0x0101010101010101L;
+        byte[] data = segment.data;
+        ByteBuffer words = segment.words();
+        for(; pos <= end - 8; pos += 8){
+            long x = words.getLong(pos) ^ pattern;
+            long found = (x - 0x0101010101010101L) & ~x & 0x8080808080808080L;
+            if(found != 0){
+                return pos + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for(; pos < end; pos++){
+            if(data[pos] == target){
+                return pos;
             }
         }
         return -1;
     }
 
-    int indexOf(ByteString byteString, int fromIndex) {
-        if(byteString == null || byteString.getData().length == 0){
+    long indexOf(ByteString byteString, long fromIndex) {
+        if(byteString == null || byteString.size() == 0){
             throw new IllegalArgumentException("bytes is empty");
         }
         if(fromIndex < 0){
             throw new IllegalArgumentException("fromIndex < 0");
         }
-        int currentSearchIndex = 0;
-        for (Segment segment : segmentList) {
-            if(segment.rear - segment.front + currentSearchIndex < fromIndex){
-                currentSearchIndex += segment.rear - segment.front;
-                continue;
+        byte[] bytes = byteString.getData();
+        syncTail();
+        long lastIndex = size - bytes.length;
+        if(fromIndex > lastIndex){
+            return -1;
+        }
+        Segment segment = head;
+        long offset = 0;
+        while(offset + (segment.rear - segment.front) <= fromIndex){
+            offset += segment.rear - segment.front;
+            segment = segment.next;
+        }
+        if(bytes.length < HORSPOOL_MINIMUM || size - fromIndex < HORSPOOL_MINIMUM_HAYSTACK){
+            return indexOfShort(segment, offset, fromIndex, lastIndex, bytes);
+        }
+        return indexOfHorspool(segment, offset, fromIndex, bytes);
+    }
+
+    /**
+     * Finds {@code bytes} by scanning for its first byte and checking the rest at each hit. This
+     * allocates nothing, which matters more than skipping ahead for needles this short.
+     */
+    private static long indexOfShort(Segment segment, long offset, long index, long lastIndex, byte[] bytes) {
+        byte first = bytes[0];
+        while(index <= lastIndex){
+            int pos = segment.front + (int) (index - offset);
+            int end = segment.front + (int) Math.min(segment.rear - segment.front, lastIndex + 1 - offset);
+            while((pos = indexOf(segment, pos, end, first)) != -1){
+                if(rangeEquals(segment, pos + 1, bytes, 1)){
+                    return pos - segment.front + offset;
+                }
+                pos++;
             }
-            for (int i = segment.front; i < segment.rear; i++) {
-                if (segment.data[i] == byteString.getData()[0] && currentSearchIndex >= fromIndex) {
-                    if (match(segment, i, byteString, 0)) {
-                        return currentSearchIndex;
+            offset += segment.rear - segment.front;
+            index = offset;
+            segment = segment.next;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds {@code bytes} with Boyer-Moore-Horspool. The byte under the window's last position
+     * decides how far the window can slide, so most bytes are never looked at. The window's end
+     * walks forward through the ring; only on a candidate do we step back to where the window
+     * starts, which may be in an earlier segment.
+     */
+    private long indexOfHorspool(Segment segment, long offset, long fromIndex, byte[] bytes) {
+        int length = bytes.length;
+        int[] skip = HORSPOOL_SKIPS.get();
+        Arrays.fill(skip, length);
+        for(int i = 0; i < length - 1; i++){
+            skip[bytes[i] & 0xff] = length - 1 - i;
+        }
+        byte last = bytes[length - 1];
+
+        long index = fromIndex + length - 1;
+        while(index < size){
+            while(index >= offset + (segment.rear - segment.front)){
+                offset += segment.rear - segment.front;
+                segment = segment.next;
+            }
+            byte[] data = segment.data;
+            int pos = segment.front + (int) (index - offset);
+            int rear = segment.rear;
+            while(pos < rear){
+                byte b = data[pos];
+                if(b == last){
+                    long start = offset + pos - segment.front - length + 1;
+                    Segment startSegment = segment;
+                    long startOffset = offset;
+                    while(start < startOffset){
+                        startSegment = startSegment.prev;
+                        startOffset -= startSegment.rear - startSegment.front;
+                    }
+                    if(rangeEquals(startSegment, startSegment.front + (int) (start - startOffset), bytes, 0)){
+                        return start;
                     }
                 }
-                currentSearchIndex++;
+                pos += skip[b & 0xff];
             }
+            index = offset + pos - segment.front;
         }
         return -1;
     }
 
-    private boolean match(Segment segment, final int startIndex, ByteString byteString, final int byteStringStartIndex) {
-        int matchedCount = 0;
-        for (int i = startIndex; i < segment.rear && byteString.getData().length > i - startIndex + byteStringStartIndex; i++) {
-            if (segment.data[i] != byteString.getData()[i - startIndex + byteStringStartIndex]) {
+    /**
+     * Returns true if the bytes starting at {@code pos} in {@code segment} equal {@code bytes}
+     * from {@code bytesOffset} to its end. The caller guarantees enough bytes follow {@code pos}.
+     */
+    private static boolean rangeEquals(Segment segment, int pos, byte[] bytes, int bytesOffset) {
+        int rear = segment.rear;
+        byte[] data = segment.data;
+        for(int i = bytesOffset; i < bytes.length; i++, pos++){
+            if(pos == rear){
+                segment = segment.next;
+                data = segment.data;
+                pos = segment.front;
+                rear = segment.rear;
+            }
+            if(data[pos] != bytes[i]){
                 return false;
-            }else{
-                matchedCount++;
             }
         }
-        if(matchedCount + byteStringStartIndex == byteString.getData().length){
-            return true;
-        }
-        if(byteString.getData().length == byteStringStartIndex + segment.rear - startIndex){
-            return true;
-        }
-        if(segment.next == null){
-            return false;
-        }
-        return match(segment.next, segment.next.front, byteString, byteStringStartIndex + matchedCount);
+        return true;
     }
 
-    int indexOfElement(ByteString byteString, int fromIndex) {
-        if(byteString == null || byteString.getData().length == 0){
+    long indexOfElement(ByteSet byteSet, long fromIndex) {
+        if(fromIndex < 0){
+            throw new IllegalArgumentException("fromIndex < 0");
+        }
+        syncTail();
+        if(fromIndex >= size){
             return -1;
         }
-        Set<Byte> set = new HashSet<>();
-        for (byte b : byteString.getData()){
-            set.add(b);
+        Segment segment = head;
+        long offset = 0;
+        while(offset + (segment.rear - segment.front) <= fromIndex){
+            offset += segment.rear - segment.front;
+            segment = segment.next;
         }
-        int cumulativeIndex = 0;
-        for (Segment segment : segmentList) {
-            if(segment.rear - segment.front + cumulativeIndex < fromIndex){
-                cumulativeIndex += segment.rear - segment.front;
-                continue;
-            }
-            for (int i = segment.front; i < segment.rear; i++) {
-                if (cumulativeIndex >= fromIndex && set.contains(segment.data[i])) {
-                    return cumulativeIndex;
+        long index = fromIndex;
+        while(index < size){
+            byte[] data = segment.data;
+            for(int pos = segment.front + (int) (index - offset), rear = segment.rear; pos < rear; pos++){
+                if(byteSet.contains(data[pos])){
+                    return pos - segment.front + offset;
                 }
-                cumulativeIndex++;
             }
+            offset += segment.rear - segment.front;
+            index = offset;
+            segment = segment.next;
         }
         return -1;
     }
 
+    /**
+     * Walks the trie of {@code options} along the bytes at the front of this list and returns the
+     * index of the selected option, without consuming anything. Returns -1 if no option matches.
+     * If {@code truncated} and the bytes run out while an earlier-listed option could still match,
+     * returns -2 so the caller can load more and try again.
+     */
+    int selectPrefix(Options options, boolean truncated) {
+        int[] trie = options.trie;
+        int node = 0;
+        int best = trie[0];
+        syncTail();
+        Segment segment = head;
+        long remaining = size;
+        while(remaining > 0){
+            byte[] data = segment.data;
+            for(int pos = segment.front, rear = segment.rear; pos < rear; pos++){
+                if(best <= trie[node + 1]){
+                    return best == Options.NONE ? -1 : best; // Nothing below can win.
+                }
+                int b = data[pos] & 0xff;
+                int child = -1;
+                for(int i = node + 3, end = i + trie[node + 2] * 2; i < end && trie[i] <= b; i += 2){
+                    if(trie[i] == b){
+                        child = trie[i + 1];
+                        break;
+                    }
+                }
+                if(child == -1){
+                    return best == Options.NONE ? -1 : best;
+                }
+                node = child;
+                best = Math.min(best, trie[node]);
+            }
+            remaining -= segment.rear - segment.front;
+            segment = segment.next;
+        }
+        if(truncated && trie[node + 1] < best){
+            return -2;
+        }
+        return best == Options.NONE ? -1 : best;
+    }
+
     byte peek() {
-        if(segmentList.size() == 0){
+        if(head == null){
             return -1;
         }
-        Segment segment = segmentList.getFirst();
-        while(segment != null){
-            if(segment.rear <= segment.front){
-                segment = segment.next;
-                continue;
+        Segment segment = head;
+        do{
+            if(segment.rear > segment.front){
+                return segment.data[segment.front];
             }
-            return segment.data[segment.front];
-        }
+            segment = segment.next;
+        }while(segment != head);
         return -1;
     }
 
     byte getByte(long index) {
-        long accumulatedIndex = 0;
-        for(Segment segment : segmentList){
-            if(accumulatedIndex + segment.rear - segment.front <= index){
-                accumulatedIndex += segment.rear - segment.front;
-            }else{
-                return segment.data[(int) (segment.front + index - accumulatedIndex)];
+        syncTail();
+        if(index < 0 || index >= size){
+            return -1;
+        }
+        Segment segment = head;
+        long offset = 0;
+        if(size - index < index){
+            // Scanning the back half of the list. Start from the tail and walk backwards.
+            offset = size;
+            while(offset > index){
+                segment = segment.prev;
+                offset -= segment.rear - segment.front;
+            }
+        }else{
+            while(offset + (segment.rear - segment.front) <= index){
+                offset += segment.rear - segment.front;
+                segment = segment.next;
             }
         }
-        return -1;
+        return segment.data[(int) (segment.front + index - offset)];
     }
 
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
-        for(Segment segment : segmentList){
+        if(head == null){
+            return "";
+        }
+        Segment segment = head;
+        do{
             for(int i = segment.front; i < segment.rear; i++){
                 String string = Integer.toHexString(segment.data[i] & 0xFF);
                 if(string.length() == 1){
@@ -292,81 +739,325 @@ public class SegmentList implements Cloneable {
                 }
                 builder.append(string);
             }
-        }
+            segment = segment.next;
+        }while(segment != head);
         return builder.toString();
     }
 
     public void write(byte b) {
-        Segment toWrite;
-        if(segmentList.size() == 0 || segmentList.getLast().front >= segmentList.getLast().rear
-                || segmentList.getLast().rear >= Segment.SIZE || !segmentList.getLast().isOwner){
-            toWrite = SegmentPool.getSegment();
-            add(segmentList, toWrite);
-        }else{
-            toWrite = segmentList.getLast();
-        }
+        Segment toWrite = getWritableSegment(1);
         toWrite.data[toWrite.rear++] = b;
     }
 
     public List<Integer> segmentSizes() {
         List<Integer> result = new ArrayList<>();
-        for(Segment segment : segmentList){
+        if(head == null){
+            return result;
+        }
+        Segment segment = head;
+        do{
             if(segment.rear - segment.front > 0){
                 result.add(segment.rear - segment.front);
             }
-        }
+            segment = segment.next;
+        }while(segment != head);
         return result;
     }
 
-    long totalWriteTime = 0;
-
     public void write(byte[] bytes, int startIndex, int endIndex) {
-        long start = System.currentTimeMillis();
         int nextWrite = startIndex;
         while(nextWrite < endIndex){
-            Segment toWrite;
-            if(segmentList.size() == 0 || segmentList.getLast().front >= segmentList.getLast().rear || segmentList.getLast().rear >= Segment.SIZE){
-                toWrite = SegmentPool.getSegment();
-                add(segmentList, toWrite);
-            }else{
-                toWrite = segmentList.getLast();
+            Segment toWrite = getWritableSegment(1);
+            int toCopy = Math.min(endIndex - nextWrite, Segment.SIZE - toWrite.rear);
+            System.arraycopy(bytes, nextWrite, toWrite.data, toWrite.rear, toCopy);
+            toWrite.rear += toCopy;
+            nextWrite += toCopy;
+        }
+    }
+
+    /**
+     * Returns the tail if it is owned by this list and has room for {@code minimumCapacity} more
+     * bytes; otherwise links in a fresh segment. Callers write into {@code data} and bump
+     * {@code rear}; the new bytes are added to {@link #size} on the next sync.
+     */
+    Segment getWritableSegment(int minimumCapacity) {
+        if(minimumCapacity < 1 || minimumCapacity > Segment.SIZE){
+            throw new IllegalArgumentException();
+        }
+        if(head != null){
+            Segment tail = head.prev;
+            if(tail.isOwner && tail.rear + minimumCapacity <= Segment.SIZE){
+                return tail;
             }
-            int available = Segment.SIZE - toWrite.rear;
-            if(available >= endIndex - nextWrite){
-                System.arraycopy(bytes, nextWrite, toWrite.data, toWrite.rear, endIndex - nextWrite);
-                toWrite.rear += endIndex - nextWrite;
-                break;
+        }
+        Segment segment = SegmentPool.getSegment();
+        push(segment);
+        return segment;
+    }
+
+    /**
+     * Appends {@code byteCount} bytes starting at {@code offset} to {@code target}. Runs of at least
+     * {@link Segment#SHARE_MINIMUM} bytes are appended as shared segments rather than copied.
+     * {@code target} may be this list.
+     */
+    void copyTo(SegmentList target, long offset, long byteCount) {
+        syncTail();
+        Util.checkOffsetAndCount(size, offset, byteCount);
+        if(byteCount == 0){
+            return;
+        }
+
+        // Skip segments that we aren't copying from.
+        Segment segment = head;
+        for(; offset >= segment.rear - segment.front; segment = segment.next){
+            offset -= segment.rear - segment.front;
+        }
+
+        // Copy from one segment at a time.
+        for(; byteCount > 0; segment = segment.next){
+            int pos = (int) (segment.front + offset);
+            int toCopy = (int) Math.min(segment.rear - pos, byteCount);
+            if(toCopy >= Segment.SHARE_MINIMUM){
+                Segment copy = segment.sharedCopy();
+                copy.front = pos;
+                copy.rear = pos + toCopy;
+                target.push(copy);
             }else{
-                System.arraycopy(bytes, nextWrite, toWrite.data, toWrite.rear, available);
-                toWrite.rear = Segment.SIZE;
-                nextWrite += available;
+                target.write(segment.data, pos, pos + toCopy);
             }
+            byteCount -= toCopy;
+            offset = 0;
         }
-        totalWriteTime += (System.currentTimeMillis() - start);
     }
 
-    Segment getWritableSegment(int minimumCapacity) {
-        if (segmentList.size() == 0 || !segmentList.getLast().isOwner) {
-            Segment segment = SegmentPool.getSegment();
-            add(segmentList, segment);
-            return segment;
+    /**
+     * Reads from {@code in} straight into writable segments until {@code byteCount} bytes have been
+     * read or, if {@code forever}, until the stream is exhausted.
+     */
+    void readFrom(InputStream in, long byteCount, boolean forever) throws IOException {
+        while(byteCount > 0){
+            int read = readOnce(in, byteCount);
+            if(read == -1){
+                if(forever){
+                    return;
+                }
+                throw new EOFException();
+            }
+            byteCount -= read;
         }
-        Segment lastSegment = segmentList.getLast();
-        if (lastSegment.rear + minimumCapacity > Segment.SIZE) {
+    }
+
+    /**
+     * Reads up to {@code byteCount} bytes from {@code in} into the tail segment with a single call
+     * to {@link InputStream#read(byte[], int, int)}, so no more than fit in the tail. Returns the
+     * number of bytes read, or -1 if the stream is exhausted.
+     */
+    int readOnce(InputStream in, long byteCount) throws IOException {
+        Segment tail = getWritableSegment(1);
+        int maxToCopy = (int) Math.min(byteCount, Segment.SIZE - tail.rear);
+        int read = in.read(tail.data, tail.rear, maxToCopy);
+        if(read == -1){
+            if(tail.front == tail.rear){
+                popEmptyTail();
+            }
+            return -1;
+        }
+        tail.rear += read;
+        return read;
+    }
+
+    /**
+     * Like {@link #readOnce(InputStream, long)}, but reads from {@code channel} at {@code position}
+     * without moving the channel's own position.
+     */
+    int readOnce(FileChannel channel, long position, long byteCount) throws IOException {
+        Segment tail = getWritableSegment(1);
+        int maxToCopy = (int) Math.min(byteCount, Segment.SIZE - tail.rear);
+        int read = channel.read(ByteBuffer.wrap(tail.data, tail.rear, maxToCopy), position);
+        if(read == -1){
+            if(tail.front == tail.rear){
+                popEmptyTail();
+            }
+            return -1;
+        }
+        tail.rear += read;
+        return read;
+    }
+
+    /**
+     * Reads up to {@code byteCount} bytes from {@code channel} with a single scattering read into
+     * the tail and as many fresh segments as {@code byteCount} needs, at most
+     * {@link #MAX_VECTOR_SEGMENTS} in all. Segments left empty go back to the pool. Returns the
+     * number of bytes read, 0 if a non-blocking channel had none ready, or -1 if the channel is
+     * exhausted.
+     */
+    long readOnce(ScatteringByteChannel channel, long byteCount) throws IOException {
+        Segment tail = getWritableSegment(1);
+        IoVector vector = IO_VECTORS.get();
+        Segment[] segments = vector.segments;
+        ByteBuffer[] buffers = vector.buffers;
+        int toRead = (int) Math.min(byteCount, Segment.SIZE - tail.rear);
+        segments[0] = tail;
+        buffers[0] = tail.byteBuffer(tail.rear, tail.rear + toRead);
+        int count = 1;
+        for(long remaining = byteCount - toRead; remaining > 0 && count < MAX_VECTOR_SEGMENTS; count++){
             Segment segment = SegmentPool.getSegment();
-            add(segmentList, segment);
-            return segment;
+            toRead = (int) Math.min(remaining, Segment.SIZE);
+            segments[count] = segment;
+            buffers[count] = segment.byteBuffer(0, toRead);
+            remaining -= toRead;
+        }
+
+        long read;
+        try{
+            read = channel.read(buffers, 0, count);
+        }finally{
+            // The fresh segments are only linked in once they hold bytes.
+            tail.rear = buffers[0].position();
+            for(int i = 1; i < count; i++){
+                Segment segment = segments[i];
+                segment.rear = buffers[i].position();
+                if(segment.rear > 0){
+                    push(segment);
+                }else{
+                    SegmentPool.recycle(segment);
+                }
+            }
+            clear(vector, count);
         }
-        return lastSegment;
+        if(read <= 0 && tail.front == tail.rear){
+            popEmptyTail();
+        }
+        return read;
     }
 
-    public long completeSegmentByteCount() {
-        long result = 0;
-        for(Segment segment : segmentList){
-            if(segment.rear == Segment.SIZE || segment.front >= segment.rear){
-                result += segment.rear - segment.front;
+    /** Drops the first {@code count} references in {@code vector}, so it keeps no segment alive. */
+    private static void clear(IoVector vector, int count) {
+        for(int i = 0; i < count; i++){
+            vector.segments[i] = null;
+            vector.buffers[i] = null;
+        }
+    }
+
+    /** Unlinks the tail, which holds no bytes, and returns it to the pool. */
+    private void popEmptyTail() {
+        syncTail();
+        Segment tail = head.prev;
+        if(tail.pop() == null){
+            head = null;
+        }else{
+            tailRear = head.prev.rear;
+        }
+        SegmentPool.recycle(tail);
+    }
+
+    /** Writes and consumes {@code byteCount} bytes, a segment's readable range at a time. */
+    void writeTo(OutputStream out, long byteCount) throws IOException {
+        syncTail();
+        Util.checkOffsetAndCount(size, 0, byteCount);
+        while(byteCount > 0){
+            Segment first = head;
+            int toCopy = (int) Math.min(byteCount, first.rear - first.front);
+            out.write(first.data, first.front, toCopy);
+            first.front += toCopy;
+            size -= toCopy;
+            byteCount -= toCopy;
+            if(first.front == first.rear){
+                pop();
             }
         }
+    }
+
+    /**
+     * Writes and consumes {@code byteCount} bytes, storing them in {@code channel} from
+     * {@code position} on without moving the channel's own position.
+     */
+    void writeTo(FileChannel channel, long position, long byteCount) throws IOException {
+        syncTail();
+        Util.checkOffsetAndCount(size, 0, byteCount);
+        while(byteCount > 0){
+            Segment first = head;
+            int toCopy = (int) Math.min(byteCount, first.rear - first.front);
+            ByteBuffer bytes = ByteBuffer.wrap(first.data, first.front, toCopy);
+            while(bytes.hasRemaining()){
+                position += channel.write(bytes, position);
+            }
+            first.front += toCopy;
+            size -= toCopy;
+            byteCount -= toCopy;
+            if(first.front == first.rear){
+                pop();
+            }
+        }
+    }
+
+    /**
+     * Writes and consumes {@code byteCount} bytes, handing up to {@link #MAX_VECTOR_SEGMENTS}
+     * segments to each gathering write. Returns the number of bytes written, which is less than
+     * {@code byteCount} only if {@code channel} is non-blocking and can't take any more.
+     */
+    long writeTo(GatheringByteChannel channel, long byteCount) throws IOException {
+        syncTail();
+        Util.checkOffsetAndCount(size, 0, byteCount);
+        IoVector vector = IO_VECTORS.get();
+        ByteBuffer[] buffers = vector.buffers;
+        long total = 0;
+        while(total < byteCount){
+            int count = 0;
+            long remaining = byteCount - total;
+            for(Segment segment = head; remaining > 0 && count < MAX_VECTOR_SEGMENTS; segment = segment.next){
+                int toWrite = (int) Math.min(remaining, segment.rear - segment.front);
+                buffers[count++] = segment.byteBuffer(segment.front, segment.front + toWrite);
+                remaining -= toWrite;
+            }
+            long written;
+            try{
+                written = channel.write(buffers, 0, count);
+            }finally{
+                clear(vector, count);
+            }
+            if(written == 0){
+                break;
+            }
+            remove(written);
+            total += written;
+        }
+        return total;
+    }
+
+    /** Writes {@code byteCount} bytes starting at {@code offset} without consuming them. */
+    void copyTo(OutputStream out, long offset, long byteCount) throws IOException {
+        syncTail();
+        Util.checkOffsetAndCount(size, offset, byteCount);
+        if(byteCount == 0){
+            return;
+        }
+
+        Segment segment = head;
+        for(; offset >= segment.rear - segment.front; segment = segment.next){
+            offset -= segment.rear - segment.front;
+        }
+
+        for(; byteCount > 0; segment = segment.next){
+            int pos = (int) (segment.front + offset);
+            int toCopy = (int) Math.min(segment.rear - pos, byteCount);
+            out.write(segment.data, pos, toCopy);
+            byteCount -= toCopy;
+            offset = 0;
+        }
+    }
+
+    /** Returns the number of bytes in segments that are not writable, i.e. all but a partial tail. */
+    public long completeSegmentByteCount() {
+        syncTail();
+        long result = size;
+        if(result == 0){
+            return 0;
+        }
+        Segment tail = head.prev;
+        if(tail.rear < Segment.SIZE && tail.isOwner){
+            result -= tail.rear - tail.front;
+        }
         return result;
     }
 
@@ -377,17 +1068,30 @@ public class SegmentList implements Cloneable {
 
         SegmentList that = (SegmentList) o;
 
-        long thisAvailable = this.available();
-        long thatAvailable = that.available();
-        if(thisAvailable != thatAvailable){
+        if(this.available() != that.available()){
             return false;
         }
-        for(int i = 0; i < thisAvailable; i++){
-            if(i >= thatAvailable){
-                return false;
+        if(size == 0){
+            return true;
+        }
+        Segment sa = this.head;
+        Segment sb = that.head;
+        int posA = sa.front;
+        int posB = sb.front;
+        for(long pos = 0, count; pos < size; pos += count){
+            while(posA == sa.rear){
+                sa = sa.next;
+                posA = sa.front;
             }
-            if(this.getByte(i) != that.getByte(i)){
-                return false;
+            while(posB == sb.rear){
+                sb = sb.next;
+                posB = sb.front;
+            }
+            count = Math.min(sa.rear - posA, sb.rear - posB);
+            for(int i = 0; i < count; i++){
+                if(sa.data[posA++] != sb.data[posB++]){
+                    return false;
+                }
             }
         }
         return true;
@@ -396,27 +1100,25 @@ public class SegmentList implements Cloneable {
     @Override
     public int hashCode() {
         int result = 0;
-        long available = available();
-        for(long i = 0; i < available; i++){
-            result += getByte(i);
-            result *= 17;
+        if(head == null){
+            return result;
         }
+        Segment segment = head;
+        do{
+            for(int i = segment.front; i < segment.rear; i++){
+                result += segment.data[i];
+                result *= 17;
+            }
+            segment = segment.next;
+        }while(segment != head);
         return result;
     }
 
     public Segment getFirst() {
-        try{
-            return segmentList.getFirst();
-        }catch (NoSuchElementException e){
-            return null;
-        }
+        return head;
     }
 
     public Segment getLast() {
-        return segmentList.getLast();
-    }
-
-    public void append(Segment next) {
-        add(segmentList, next);
+        return head == null ? null : head.prev;
     }
 }
@@ -1,47 +1,135 @@
 package okio;
 
-public class SegmentPool {
+import java.util.concurrent.atomic.AtomicReference;
 
-    private static final int TOTAL_COUNT = 100;
+/**
+ * A pool of unused segments, shared by all buffers.
+ *
+ * <p>Threads are hashed onto a power-of-two number of stripes so that concurrent buffers rarely
+ * touch the same stack. A stripe that is empty on take, or full on recycle, falls back to a single
+ * shared overflow stack. Each stack is a singly-linked list through {@link Segment#next}; the top
+ * segment's {@code rear} holds the stack's total byte count.
+ *
+ * <p>A stack's head is claimed by atomically swapping in {@link #LOCK} and released by storing the
+ * new head. A thread that finds the stack already claimed never waits: it allocates a new segment,
+ * or leaves the recycled one to the garbage collector. This keeps the pool non-blocking and free of
+ * the ABA problem that a plain compare-and-set pop would have.
+ */
+public final class SegmentPool {
 
-    public static Segment segment;
+    /**
+     * The most bytes the pool will hold, across every stripe and the overflow stack. Configurable
+     * with the {@code okio.segmentPool.maxSize} system property; defaults to 128 KiB per stripe.
+     */
+    public static final long MAX_SIZE;
 
-    public static int count = 0;
+    private static final int STRIPE_COUNT =
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
 
-    static synchronized Segment getSegment(){
-        if(segment == null){
-            return new Segment();
-        }else{
-            Segment result = segment;
-            result.next = null;
-            segment = segment.next;
-            count--;
-            return result;
+    /** Half of the budget is divided among the stripes, in whole segments. */
+    private static final long STRIPE_MAX_SIZE;
+
+    /** The other half goes to the overflow stack. */
+    private static final long OVERFLOW_MAX_SIZE;
+
+    static {
+        MAX_SIZE = Long.getLong("okio.segmentPool.maxSize", STRIPE_COUNT * 128L * 1024L);
+        if (MAX_SIZE < 0) {
+            throw new IllegalArgumentException("okio.segmentPool.maxSize < 0: " + MAX_SIZE);
+        }
+        // Byte counts are kept in an int, so no single stack may hold more than 2 GiB.
+        long half = Math.min(MAX_SIZE / 2, Integer.MAX_VALUE);
+        STRIPE_MAX_SIZE = half / STRIPE_COUNT / Segment.SIZE * Segment.SIZE;
+        OVERFLOW_MAX_SIZE = half / Segment.SIZE * Segment.SIZE;
+    }
+
+    /** Marks a stack whose head is claimed by another thread. */
+    private static final Segment LOCK = new Segment();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final AtomicReference<Segment>[] stripes = new AtomicReference[STRIPE_COUNT];
+
+    private static final AtomicReference<Segment> overflow = new AtomicReference<>();
+
+    static {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new AtomicReference<>();
+        }
+    }
+
+    private SegmentPool() {
+    }
+
+    static Segment getSegment() {
+        Segment result = take(stripe());
+        if (result == null) {
+            result = take(overflow);
+        }
+        return result != null ? result : new Segment();
+    }
+
+    static void recycle(Segment segment) {
+        if (segment.next != null || segment.prev != null) {
+            throw new IllegalArgumentException();
+        }
+        if (segment.isShared) {
+            return; // This segment cannot be recycled.
         }
+        if (!put(stripe(), segment, STRIPE_MAX_SIZE)) {
+            put(overflow, segment, OVERFLOW_MAX_SIZE);
+        }
+    }
+
+    /**
+     * Returns the number of bytes pooled where the calling thread can take them: its own stripe
+     * plus the overflow stack.
+     */
+    public static long byteCount() {
+        return byteCount(stripe()) + byteCount(overflow);
+    }
+
+    private static long byteCount(AtomicReference<Segment> stack) {
+        Segment first = stack.get();
+        return first == null || first == LOCK ? 0 : first.rear;
     }
 
-    static synchronized void recycle(Segment segment){
-        if(count >= TOTAL_COUNT || segment.isShared){
-            return;
+    private static AtomicReference<Segment> stripe() {
+        int hash = (int) Thread.currentThread().getId();
+        return stripes[hash & (STRIPE_COUNT - 1)];
+    }
+
+    /** Pops the top of {@code stack}, or returns null if it is empty or claimed by another thread. */
+    private static Segment take(AtomicReference<Segment> stack) {
+        Segment first = stack.getAndSet(LOCK);
+        if (first == LOCK) {
+            return null;
+        }
+        if (first == null) {
+            stack.set(null);
+            return null;
         }
+        stack.set(first.next);
+        first.next = null;
+        first.front = 0;
+        first.rear = 0;
+        return first;
+    }
+
+    /** Pushes {@code segment} onto {@code stack}, returning false if it is full or claimed. */
+    private static boolean put(AtomicReference<Segment> stack, Segment segment, long maxSize) {
+        Segment first = stack.getAndSet(LOCK);
+        if (first == LOCK) {
+            return false;
+        }
+        int firstByteCount = first != null ? first.rear : 0;
+        if (firstByteCount + Segment.SIZE > maxSize) {
+            stack.set(first);
+            return false;
+        }
+        segment.next = first;
         segment.front = 0;
-        segment.rear = 0;
-        segment.next = null;
-        segment.next = SegmentPool.segment;
-        segment.prev = null;
-        SegmentPool.segment = segment;
-        count++;
-    }
-
-    public static synchronized Segment getSegment(Segment next) {
-        if(segment == null){
-            return new Segment(next);
-        }else{
-            Segment result = segment;
-            result.next = null;
-            segment = segment.next;
-            count--;
-            return result;
-        }
-    }
-}
\ No newline at end of file
+        segment.rear = firstByteCount + Segment.SIZE;
+        stack.set(segment);
+        return true;
+    }
+}
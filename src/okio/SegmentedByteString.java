@@ -0,0 +1,331 @@
+package okio;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import static okio.Util.arrayRangeEquals;
+
+/**
+ * An immutable byte string composed of segments of a buffer. Taking a snapshot only marks the
+ * buffer's segments as shared, so no bytes are copied; the segments are then never written again
+ * or returned to the pool.
+ *
+ * <p>{@code directory} holds two int arrays side by side. The first half is the cumulative end
+ * offset of each segment in this string, the second half is the position of each segment's first
+ * byte in its {@code byte[]}. Lookups binary search the first half.
+ *
+ * <p>Operations that need a contiguous array, like {@link #utf8()} and {@link #getData()}, build
+ * one on demand.
+ */
+final class SegmentedByteString extends ByteString {
+
+    private static final long serialVersionUID = 1L;
+
+    final transient byte[][] segments;
+
+    final transient int[] directory;
+
+    /** Snapshots the first {@code byteCount} bytes of {@code segmentList}, which must be at least 1. */
+    SegmentedByteString(SegmentList segmentList, int byteCount) {
+        super(null);
+        if (byteCount <= 0) {
+            throw new IllegalArgumentException("byteCount <= 0: " + byteCount);
+        }
+        Util.checkOffsetAndCount(segmentList.available(), 0, byteCount);
+
+        // Walk through the segments once to count them, skipping any that are empty.
+        int segmentCount = 0;
+        Segment s = segmentList.head;
+        for (int offset = 0; offset < byteCount; s = s.next) {
+            if (s.rear == s.front) {
+                continue;
+            }
+            offset += s.rear - s.front;
+            segmentCount++;
+        }
+
+        // Then mark each segment shared and record where its bytes are.
+        segments = new byte[segmentCount][];
+        directory = new int[segmentCount * 2];
+        int offset = 0;
+        segmentCount = 0;
+        for (s = segmentList.head; offset < byteCount; s = s.next) {
+            if (s.rear == s.front) {
+                continue;
+            }
+            segments[segmentCount] = s.data;
+            offset += s.rear - s.front;
+            directory[segmentCount] = Math.min(offset, byteCount);
+            directory[segmentCount + segments.length] = s.front;
+            s.isShared = true;
+            segmentCount++;
+        }
+    }
+
+    /** Returns the index of the segment that holds the byte at {@code pos}. */
+    private int segment(int pos) {
+        // Search for (pos + 1) instead of (pos) because the directory holds sizes, not indexes.
+        int i = Arrays.binarySearch(directory, 0, segments.length, pos + 1);
+        return i >= 0 ? i : ~i;
+    }
+
+    @Override
+    public int size() {
+        return directory[segments.length - 1];
+    }
+
+    @Override
+    public byte getByte(int index) {
+        Util.checkOffsetAndCount(size(), index, 1);
+        int s = segment(index);
+        int segmentOffset = s == 0 ? 0 : directory[s - 1];
+        int segmentPos = directory[segments.length + s];
+        return segments[s][index - segmentOffset + segmentPos];
+    }
+
+    @Override
+    public boolean rangeEquals(int offset, ByteString other, int otherOffset, int byteCount) {
+        if (offset < 0 || offset > size() - byteCount) {
+            return false;
+        }
+        // Go segment-by-segment through this, passing arrays to other's rangeEquals().
+        for (int s = segment(offset); byteCount > 0; s++) {
+            int segmentOffset = s == 0 ? 0 : directory[s - 1];
+            int stepSize = Math.min(byteCount, directory[s] - offset);
+            int segmentPos = directory[segments.length + s];
+            int arrayOffset = offset - segmentOffset + segmentPos;
+            if (!other.rangeEquals(otherOffset, segments[s], arrayOffset, stepSize)) {
+                return false;
+            }
+            offset += stepSize;
+            otherOffset += stepSize;
+            byteCount -= stepSize;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean rangeEquals(int offset, byte[] other, int otherOffset, int byteCount) {
+        if (offset < 0 || offset > size() - byteCount
+                || otherOffset < 0 || otherOffset > other.length - byteCount) {
+            return false;
+        }
+        // Go segment-by-segment through this, comparing ranges of arrays.
+        for (int s = segment(offset); byteCount > 0; s++) {
+            int segmentOffset = s == 0 ? 0 : directory[s - 1];
+            int stepSize = Math.min(byteCount, directory[s] - offset);
+            int segmentPos = directory[segments.length + s];
+            int arrayOffset = offset - segmentOffset + segmentPos;
+            if (!arrayRangeEquals(segments[s], arrayOffset, other, otherOffset, stepSize)) {
+                return false;
+            }
+            offset += stepSize;
+            otherOffset += stepSize;
+            byteCount -= stepSize;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (!(o instanceof ByteString)) return false;
+
+        ByteString that = (ByteString) o;
+
+        return that.size() == size() && rangeEquals(0, that, 0, size());
+    }
+
+    @Override
+    public int hashCode() {
+        // Same as Arrays.hashCode() over the flattened bytes, so it agrees with ByteString.
+        int result = 1;
+        for (int s = 0, offset = 0; s < segments.length; s++) {
+            byte[] data = segments[s];
+            int pos = directory[segments.length + s];
+            int limit = pos + directory[s] - offset;
+            for (int i = pos; i < limit; i++) {
+                result = 31 * result + data[i];
+            }
+            offset = directory[s];
+        }
+        return result;
+    }
+
+    /** Copies {@code byteCount} bytes starting at {@code offset} into {@code target}. */
+    private void copyTo(int offset, byte[] target, int targetOffset, int byteCount) {
+        for (int s = segment(offset); byteCount > 0; s++) {
+            int segmentOffset = s == 0 ? 0 : directory[s - 1];
+            int stepSize = Math.min(byteCount, directory[s] - offset);
+            int segmentPos = directory[segments.length + s];
+            System.arraycopy(segments[s], offset - segmentOffset + segmentPos, target, targetOffset, stepSize);
+            offset += stepSize;
+            targetOffset += stepSize;
+            byteCount -= stepSize;
+        }
+    }
+
+    @Override
+    public byte[] toByteArray() {
+        byte[] result = new byte[size()];
+        copyTo(0, result, 0, result.length);
+        return result;
+    }
+
+    /** Returns a copy of this string's bytes. Unlike {@link ByteString}, the array isn't shared. */
+    @Override
+    public byte[] getData() {
+        return toByteArray();
+    }
+
+    /** Returns a contiguous copy of this. */
+    private ByteString toByteString() {
+        return new ByteString(toByteArray());
+    }
+
+    @Override
+    public String utf8() {
+        return toByteString().utf8();
+    }
+
+    @Override
+    public String toString(Charset charset) {
+        return toByteString().toString(charset);
+    }
+
+    @Override
+    public String string(Charset charset) {
+        return toByteString().string(charset);
+    }
+
+    @Override
+    public ByteString toAsciiLowercase() {
+        return toByteString().toAsciiLowercase();
+    }
+
+    @Override
+    public ByteString toAsciiUppercase() {
+        return toByteString().toAsciiUppercase();
+    }
+
+    @Override
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(toByteArray()).asReadOnlyBuffer();
+    }
+
+    @Override
+    public ByteString substring(int startIndex) {
+        if (startIndex < 0 || startIndex >= size()) {
+            throw new IllegalArgumentException();
+        }
+        byte[] bytes = new byte[size() - startIndex];
+        copyTo(startIndex, bytes, 0, bytes.length);
+        return new ByteString(bytes);
+    }
+
+    @Override
+    public ByteString substring(int startIndex, int endIndex) {
+        if (startIndex < 0 || startIndex >= size() || endIndex < 0 || endIndex >= size() || endIndex < startIndex) {
+            throw new IllegalArgumentException();
+        }
+        byte[] bytes = new byte[endIndex - startIndex];
+        copyTo(startIndex, bytes, 0, bytes.length);
+        return new ByteString(bytes);
+    }
+
+    @Override
+    public String hex() {
+        char[] result = new char[size() * 2];
+        int c = 0;
+        for (int s = 0, offset = 0; s < segments.length; s++) {
+            byte[] data = segments[s];
+            int pos = directory[segments.length + s];
+            int limit = pos + directory[s] - offset;
+            for (int i = pos; i < limit; i++) {
+                result[c++] = Hex.HEX_DIGITS[(data[i] >> 4) & 0xf];
+                result[c++] = Hex.HEX_DIGITS[data[i] & 0xf];
+            }
+            offset = directory[s];
+        }
+        return new String(result);
+    }
+
+    @Override
+    public String base64() {
+        return Base64.encode(this);
+    }
+
+    @Override
+    public String base64Url() {
+        return Base64.encodeUrl(this);
+    }
+
+    @Override
+    ByteString digest(String algorithm) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(algorithm);
+            for (int s = 0, offset = 0; s < segments.length; s++) {
+                digest.update(segments[s], directory[segments.length + s], directory[s] - offset);
+                offset = directory[s];
+            }
+            return ByteString.of(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    ByteString hmac(String algorithm, ByteString key) {
+        try {
+            Mac mac = Mac.getInstance(algorithm);
+            mac.init(new SecretKeySpec(key.toByteArray(), algorithm));
+            for (int s = 0, offset = 0; s < segments.length; s++) {
+                mac.update(segments[s], directory[segments.length + s], directory[s] - offset);
+                offset = directory[s];
+            }
+            return ByteString.of(mac.doFinal());
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (InvalidKeyException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public void write(ByteArrayOutputStream out) throws IOException {
+        write((OutputStream) out);
+    }
+
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+        if (outputStream == null) {
+            throw new IllegalArgumentException("out == null");
+        }
+        for (int s = 0, offset = 0; s < segments.length; s++) {
+            outputStream.write(segments[s], directory[segments.length + s], directory[s] - offset);
+            offset = directory[s];
+        }
+    }
+
+    @Override
+    void write(Buffer buffer) {
+        for (int s = 0, offset = 0; s < segments.length; s++) {
+            buffer.write(segments[s], directory[segments.length + s], directory[s] - offset);
+            offset = directory[s];
+        }
+    }
+
+    /** Serializes as a plain {@link ByteString}; the segments are an implementation detail. */
+    private Object writeReplace() {
+        return toByteString();
+    }
+}
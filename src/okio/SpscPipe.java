@@ -0,0 +1,270 @@
+package okio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import static okio.Util.checkOffsetAndCount;
+
+/**
+ * A {@link Pipe} for exactly one writing thread and one reading thread. Instead of a lock, whole
+ * segments are handed over through a bounded ring with volatile head and tail indices: the sink
+ * unlinks segments from the written buffer and publishes them, the source links them into the
+ * reader's buffer. No bytes are copied, except when a read asks for fewer bytes than a segment
+ * holds: that prefix is copied out.
+ *
+ * <p>Writes smaller than a segment still take a slot each. Once every slot is taken, the sink
+ * coalesces further bytes into an overflow buffer, which the source takes whole once it has
+ * drained the ring. Like this the ring never limits how much may be buffered.
+ *
+ * <p>As with {@link Pipe}, the sink blocks while {@code maxBufferSize} bytes are unread. A thread
+ * that has to wait spins briefly, then parks until the other end makes progress, its timeout
+ * elapses or it is interrupted.
+ *
+ * <p>Each end must only be used by its own thread; using the sink or the source from two threads
+ * at once corrupts the pipe.
+ */
+public final class SpscPipe {
+
+    /** How many times a waiting end checks again before it parks. */
+    private static final int SPIN_LIMIT = 100;
+
+    /** Marks a wait whose time limit hasn't been taken from the timeout yet. */
+    private static final long NOT_WAITING = -2L;
+
+    final long maxBufferSize;
+    private final Segment[] ring;
+    private final int mask;
+
+    /** Index of the next slot the source reads. Written only by the source. */
+    private volatile long head;
+    /** Index of the next slot the sink fills. Written only by the sink. */
+    private volatile long tail;
+    /** Bytes the source has taken. Written only by the source. */
+    private volatile long bytesRead;
+    /** Bytes the sink has published. Only the sink uses this. */
+    private long bytesWritten;
+    /**
+     * Bytes written while the ring was full. Whoever takes the overflow out owns it; the sink puts
+     * it back after appending to it.
+     */
+    private final AtomicReference<Overflow> overflow = new AtomicReference<>();
+
+    private volatile boolean sinkClosed;
+    private volatile boolean sourceClosed;
+    private volatile Thread waitingSink;
+    private volatile Thread waitingSource;
+
+    private final Sink sink = new SpscSink();
+    private final Source source = new SpscSource();
+
+    public SpscPipe(long maxBufferSize) {
+        if (maxBufferSize < 1L) {
+            throw new IllegalArgumentException("maxBufferSize < 1: " + maxBufferSize);
+        }
+        this.maxBufferSize = maxBufferSize;
+        // Room for twice the segments that maxBufferSize fills, so partial segments rarely overflow.
+        int slots = (int) Math.min(1024, Math.max(16, maxBufferSize / Segment.SIZE * 2));
+        this.ring = new Segment[Integer.highestOneBit(slots - 1) << 1];
+        this.mask = ring.length - 1;
+    }
+
+    public Source source() {
+        return source;
+    }
+
+    public Sink sink() {
+        return sink;
+    }
+
+    /**
+     * Parks the calling thread until it is unparked, or until {@code waitNanos} have passed since
+     * {@code start}. A {@code waitNanos} of -1 means no limit.
+     */
+    private static void park(long start, long waitNanos) throws InterruptedIOException {
+        if (waitNanos == -1L) {
+            LockSupport.park();
+        } else {
+            long remaining = waitNanos - (System.nanoTime() - start);
+            if (remaining <= 0L) throw new InterruptedIOException("timeout");
+            LockSupport.parkNanos(remaining);
+        }
+        if (Thread.interrupted()) throw new InterruptedIOException("interrupted");
+    }
+
+    /** Bytes that follow the ring's segments up to {@code ringEnd}, and precede any after it. */
+    private static final class Overflow {
+        final Buffer buffer = new Buffer();
+        final long ringEnd;
+
+        Overflow(long ringEnd) {
+            this.ringEnd = ringEnd;
+        }
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    final class SpscSink implements Sink {
+        final Timeout timeout = new Timeout();
+        /** True while {@link #overflow} may hold bytes this sink wrote. */
+        private boolean overflowing;
+
+        @Override public void write(Buffer source, long byteCount) throws IOException {
+            checkOffsetAndCount(source.size(), 0, byteCount);
+            if (sinkClosed) throw new IllegalStateException("closed");
+
+            long t = tail;
+            long start = 0L;
+            long waitNanos = NOT_WAITING;
+            int spins = 0;
+            while (byteCount > 0) {
+                if (sourceClosed) throw new IOException("source is closed");
+
+                long bufferSpaceAvailable = maxBufferSize - (bytesWritten - bytesRead);
+                if (bufferSpaceAvailable == 0) {
+                    // Wait until the source reads some bytes.
+                    if (spins++ < SPIN_LIMIT) continue;
+                    if (waitNanos == NOT_WAITING) waitNanos = timeout.waitNanos(start = System.nanoTime());
+                    waitingSink = Thread.currentThread();
+                    try {
+                        if (!sourceClosed && bytesWritten - bytesRead >= maxBufferSize) {
+                            park(start, waitNanos);
+                        }
+                    } finally {
+                        waitingSink = null;
+                    }
+                    continue;
+                }
+
+                long toMove = Math.min(bufferSpaceAvailable, byteCount);
+                Overflow pending = overflowing ? overflow.getAndSet(null) : null;
+                overflowing = pending != null;
+                long moved;
+                if (pending == null && t - head < ring.length) {
+                    Segment segment = source.segmentList.takeHead((int) Math.min(Segment.SIZE, toMove));
+                    moved = segment.rear - segment.front;
+                    ring[(int) t & mask] = segment;
+                    bytesWritten += moved;
+                    tail = ++t;
+                } else {
+                    // The ring is full, or older bytes already wait in the overflow: append to those.
+                    if (pending == null) {
+                        pending = new Overflow(t);
+                    }
+                    pending.buffer.write(source, toMove);
+                    moved = toMove;
+                    bytesWritten += moved;
+                    overflow.set(pending);
+                    overflowing = true;
+                }
+                byteCount -= moved;
+                // Progress was made: the next wait gets the whole timeout again.
+                spins = 0;
+                waitNanos = NOT_WAITING;
+                unpark(waitingSource); // Notify the source that it can resume reading.
+            }
+        }
+
+        @Override public void flush() throws IOException {
+            if (sinkClosed) throw new IllegalStateException("closed");
+            if (sourceClosed && bytesWritten > bytesRead) throw new IOException("source is closed");
+        }
+
+        @Override public void close() throws IOException {
+            if (sinkClosed) return;
+            if (sourceClosed && bytesWritten > bytesRead) throw new IOException("source is closed");
+            sinkClosed = true;
+            unpark(waitingSource); // Notify the source that no more bytes are coming.
+        }
+
+        @Override public Timeout timeout() {
+            return timeout;
+        }
+    }
+
+    final class SpscSource implements Source {
+        final Timeout timeout = new Timeout();
+        /** Overflow bytes taken from the sink but not read yet. */
+        private final Buffer carry = new Buffer();
+        /** The ring index that {@link #carry} follows. Segments before it are read first. */
+        private long carryAfter;
+
+        @Override public long read(Buffer sink, long byteCount) throws IOException {
+            if (byteCount < 0) throw new IllegalArgumentException("byteCount < 0: " + byteCount);
+            if (sourceClosed) throw new IllegalStateException("closed");
+
+            long h = head;
+            long start = 0L;
+            long waitNanos = NOT_WAITING;
+            for (int spins = 0; carry.size() == 0 && h == tail; spins++) {
+                boolean closed = sinkClosed;
+                Overflow pending = overflow.getAndSet(null);
+                if (pending != null) {
+                    carry.write(pending.buffer, pending.buffer.size());
+                    carryAfter = pending.ringEnd;
+                    break;
+                }
+                // Everything was published before the sink closed, so the pipe is really empty.
+                if (closed && h == tail) return -1L;
+                // Wait until the sink fills the ring.
+                if (spins < SPIN_LIMIT) continue;
+                if (waitNanos == NOT_WAITING) waitNanos = timeout.waitNanos(start = System.nanoTime());
+                waitingSource = Thread.currentThread();
+                try {
+                    if (h == tail && !sinkClosed && overflow.get() == null) {
+                        park(start, waitNanos);
+                    }
+                } finally {
+                    waitingSource = null;
+                }
+            }
+
+            if (carry.size() > 0 && h == carryAfter) {
+                long result = Math.min(byteCount, carry.size());
+                sink.write(carry, result);
+                bytesRead += result;
+                unpark(waitingSink); // Notify the sink that it can resume writing.
+                return result;
+            }
+
+            // Segments published before the carried overflow are read first.
+            long t = carry.size() > 0 ? carryAfter : tail;
+            long result = 0L;
+            while (result < byteCount && h != t) {
+                int slot = (int) h & mask;
+                Segment segment = ring[slot];
+                int segmentSize = segment.rear - segment.front;
+                if (segmentSize <= byteCount - result) {
+                    ring[slot] = null;
+                    h++;
+                    sink.segmentList.append(segment);
+                    result += segmentSize;
+                } else {
+                    // Copy out the prefix that was asked for; the rest stays in the ring.
+                    int toCopy = (int) (byteCount - result);
+                    sink.segmentList.write(segment.data, segment.front, segment.front + toCopy);
+                    segment.front += toCopy;
+                    result += toCopy;
+                }
+            }
+            bytesRead += result;
+            head = h;
+            unpark(waitingSink); // Notify the sink that it can resume writing.
+            return result;
+        }
+
+        @Override public void close() throws IOException {
+            sourceClosed = true;
+            unpark(waitingSink); // Notify the sink that no more bytes are desired.
+        }
+
+        @Override public Timeout timeout() {
+            return timeout;
+        }
+    }
+}
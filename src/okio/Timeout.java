@@ -3,6 +3,7 @@ package okio;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 
 /**
  * Created by pc on 2018/2/25.
@@ -49,32 +50,18 @@ public class Timeout {
 
     public final void waitUntilNotified(Object monitor) throws InterruptedIOException {
         try {
-            boolean hasDeadline = hasDeadline();
-            long timeoutNanos = Timeout.this.timeoutNanos;
+            long start = System.nanoTime();
+            long waitNanos = waitNanos(start);
 
-            if (!hasDeadline && timeoutNanos == 0L) {
+            if (waitNanos == -1L) {
                 monitor.wait();
                 return;
             }
 
-            long waitNanos;
-            long start = System.nanoTime();
-            if (hasDeadline && timeoutNanos != 0) {
-                long deadlineNanos = deadlineNanoTime - start;
-                waitNanos = Math.min(timeoutNanos, deadlineNanos);
-            } else if (hasDeadline) {
-                waitNanos = deadlineNanoTime - start;
-            } else {
-                waitNanos = timeoutNanos;
-            }
-
             long elapsedNanos = 0L;
             if (waitNanos > 0L) {
                 long waitMillis = waitNanos / 1000000L;
-                System.out.println("waitMillis: " + waitMillis);
-                System.out.println("(int) (waitNanos - waitMillis * 1000000L): " + (int) (waitNanos - waitMillis * 1000000L));
                 monitor.wait(waitMillis, (int) (waitNanos - waitMillis * 1000000L));
-                System.out.println("elapsedNanos: " + (System.nanoTime() - start));
                 elapsedNanos = System.nanoTime() - start;
             }
 
@@ -87,6 +74,45 @@ public class Timeout {
         }
     }
 
+    /**
+     * Like {@link #waitUntilNotified}, but waits on a {@link Condition} of a
+     * {@link java.util.concurrent.locks.Lock} that the caller holds. Unlike {@link Object#wait}, this
+     * doesn't pin a virtual thread to its carrier, and a signal wakes only the waiters on
+     * {@code condition}.
+     */
+    public final void awaitSignal(Condition condition) throws InterruptedIOException {
+        try {
+            long waitNanos = waitNanos(System.nanoTime());
+
+            if (waitNanos == -1L) {
+                condition.await();
+                return;
+            }
+
+            // Throw if the timeout elapsed before the condition was signalled.
+            if (waitNanos == 0L || condition.awaitNanos(waitNanos) <= 0L) {
+                throw new InterruptedIOException("timeout");
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted");
+        }
+    }
+
+    /**
+     * Returns how long a wait that starts at {@code now} may last: the sooner of the timeout and the
+     * deadline, 0 if the deadline has passed, or -1 if there is neither.
+     */
+    long waitNanos(long now) {
+        if (hasDeadline && timeoutNanos != 0L) {
+            return Math.max(0L, Math.min(timeoutNanos, deadlineNanoTime - now));
+        } else if (hasDeadline) {
+            return Math.max(0L, deadlineNanoTime - now);
+        } else if (timeoutNanos != 0L) {
+            return timeoutNanos;
+        }
+        return -1L;
+    }
+
     public void throwIfReached() throws IOException {
         if (Thread.interrupted()) {
             throw new InterruptedIOException("thread interrupted");
@@ -1,10 +1,14 @@
 package okio;
 
+import java.nio.charset.Charset;
+
 /**
  * Created by pc on 2018/2/4.
  */
 public class Util {
 
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
     public static void checkOffsetAndCount(long size, long offset, long byteCount) {
         if ((offset | byteCount) < 0 || offset > size || size - offset < byteCount) {
             throw new ArrayIndexOutOfBoundsException(
@@ -12,6 +16,17 @@ public class Util {
         }
     }
 
+    /**
+     * Returns {@code byteCount} as an int, for reads that produce a single array or string. Sizes
+     * and offsets are longs everywhere else, so this is where a count too large to hold is caught.
+     */
+    public static int checkArraySize(long byteCount) {
+        if (byteCount < 0 || byteCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("byteCount out of range: " + byteCount);
+        }
+        return (int) byteCount;
+    }
+
     public static long reverseBytesLong(long v) {
         return (v & 0xff00000000000000L) >>> 56
                 |  (v & 0x00ff000000000000L) >>> 40
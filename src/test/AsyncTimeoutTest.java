@@ -21,7 +21,9 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -324,6 +326,38 @@ public final class AsyncTimeoutTest {
     assertEquals(expected, actual);
   }
 
+  @Test
+  public void timeoutInHigherLevelCascadesDown() throws Exception {
+    // Further out than the lowest level of the wheel reaches.
+    AsyncTimeout timeout = new RecordingAsyncTimeout();
+    timeout.timeout(1300, TimeUnit.MILLISECONDS);
+    timeout.enter();
+    Thread.sleep(1000);
+    assertTimedOut();
+    Thread.sleep(500);
+    assertTrue(timeout.exit());
+    assertTimedOut(timeout);
+  }
+
+  @Test
+  public void manyTimeoutsEnterAndExit() throws Exception {
+    List<AsyncTimeout> timeouts = new ArrayList<>();
+    for (int i = 0; i < 20000; i++) {
+      AsyncTimeout timeout = new RecordingAsyncTimeout();
+      timeout.timeout(1 + i % 7200, TimeUnit.SECONDS);
+      timeout.enter();
+      timeouts.add(timeout);
+    }
+    a.enter();
+    Collections.shuffle(timeouts, new Random(0));
+    for (AsyncTimeout timeout : timeouts) {
+      assertFalse(timeout.exit());
+    }
+    Thread.sleep(500);
+    assertTrue(a.exit());
+    assertTimedOut(a);
+  }
+
   /** Asserts which timeouts fired, and in which order. */
   private void assertTimedOut(Timeout... expected) {
     assertEquals(Arrays.asList(expected), timedOut);
@@ -3,6 +3,7 @@ package test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
@@ -10,8 +11,10 @@ import java.util.List;
 import java.util.Random;
 
 import okio.Buffer;
+import okio.ByteSet;
 import okio.ByteString;
 import okio.Segment;
+import okio.SegmentPool;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -84,31 +87,33 @@ public final class BufferTest {
         assertEquals(0, buffer.size());
     }
 
-//    @Test
-//    public void fillAndDrainPool() throws Exception {
-//        Buffer buffer = new Buffer();
-//
-//        // Take 2 * MAX_SIZE segments. This will drain the pool, even if other tests filled it.
-//        buffer.write(new byte[(int) SegmentPool.MAX_SIZE]);
-//        buffer.write(new byte[(int) SegmentPool.MAX_SIZE]);
-//        assertEquals(0, SegmentPool.byteCount);
-//
-//        // Recycle MAX_SIZE segments. They're all in the pool.
-//        buffer.readByteString(SegmentPool.MAX_SIZE);
-//        assertEquals(SegmentPool.MAX_SIZE, SegmentPool.byteCount);
-//
-//        // Recycle MAX_SIZE more segments. The pool is full so they get garbage collected.
-//        buffer.readByteString(SegmentPool.MAX_SIZE);
-//        assertEquals(SegmentPool.MAX_SIZE, SegmentPool.byteCount);
-//
-//        // Take MAX_SIZE segments to drain the pool.
-//        buffer.write(new byte[(int) SegmentPool.MAX_SIZE]);
-//        assertEquals(0, SegmentPool.byteCount);
-//
-//        // Take MAX_SIZE more segments. The pool is drained so these will need to be allocated.
-//        buffer.write(new byte[(int) SegmentPool.MAX_SIZE]);
-//        assertEquals(0, SegmentPool.byteCount);
-//    }
+    @Test
+    public void fillAndDrainPool() throws Exception {
+        Buffer buffer = new Buffer();
+
+        // Take 2 * MAX_SIZE segments. This will drain the pool, even if other tests filled it.
+        buffer.write(new byte[(int) SegmentPool.MAX_SIZE]);
+        buffer.write(new byte[(int) SegmentPool.MAX_SIZE]);
+        assertEquals(0, SegmentPool.byteCount());
+
+        // Recycle MAX_SIZE segments. This thread's stripe and the overflow stack fill up.
+        buffer.skip(SegmentPool.MAX_SIZE);
+        long pooled = SegmentPool.byteCount();
+        assertTrue(pooled > 0);
+        assertTrue(pooled <= SegmentPool.MAX_SIZE);
+
+        // Recycle MAX_SIZE more segments. The pool is full so they get garbage collected.
+        buffer.skip(SegmentPool.MAX_SIZE);
+        assertEquals(pooled, SegmentPool.byteCount());
+
+        // Take MAX_SIZE segments to drain the pool.
+        buffer.write(new byte[(int) SegmentPool.MAX_SIZE]);
+        assertEquals(0, SegmentPool.byteCount());
+
+        // Take MAX_SIZE more segments. The pool is drained so these will need to be allocated.
+        buffer.write(new byte[(int) SegmentPool.MAX_SIZE]);
+        assertEquals(0, SegmentPool.byteCount());
+    }
 
     @Test
     public void moveBytesBetweenBuffersShareSegment() throws Exception {
@@ -117,20 +122,20 @@ public final class BufferTest {
         assertEquals(Arrays.asList(size * 2), segmentSizes);
     }
 
-//    @Test
-//    public void moveBytesBetweenBuffersReassignSegment() throws Exception {
-//        int size = (Segment.SIZE / 2) + 1;
-//        List<Integer> segmentSizes = moveBytesBetweenBuffers(repeat('a', size), repeat('b', size));
-//        assertEquals(Arrays.asList(size, size), segmentSizes);
-//    }
-//
-//    @Test
-//    public void moveBytesBetweenBuffersMultipleSegments() throws Exception {
-//        int size = 3 * Segment.SIZE + 1;
-//        List<Integer> segmentSizes = moveBytesBetweenBuffers(repeat('a', size), repeat('b', size));
-//        assertEquals(Arrays.asList(Segment.SIZE, Segment.SIZE, Segment.SIZE, 1,
-//                Segment.SIZE, Segment.SIZE, Segment.SIZE, 1), segmentSizes);
-//    }
+    @Test
+    public void moveBytesBetweenBuffersReassignSegment() throws Exception {
+        int size = (Segment.SIZE / 2) + 1;
+        List<Integer> segmentSizes = moveBytesBetweenBuffers(repeat('a', size), repeat('b', size));
+        assertEquals(Arrays.asList(size, size), segmentSizes);
+    }
+
+    @Test
+    public void moveBytesBetweenBuffersMultipleSegments() throws Exception {
+        int size = 3 * Segment.SIZE + 1;
+        List<Integer> segmentSizes = moveBytesBetweenBuffers(repeat('a', size), repeat('b', size));
+        assertEquals(Arrays.asList(Segment.SIZE, Segment.SIZE, Segment.SIZE, 1,
+                Segment.SIZE, Segment.SIZE, Segment.SIZE, 1), segmentSizes);
+    }
 
     private List<Integer> moveBytesBetweenBuffers(String... contents) throws IOException {
         StringBuilder expected = new StringBuilder();
@@ -145,37 +150,37 @@ public final class BufferTest {
         assertEquals(expected.toString(), buffer.readUtf8(expected.length()));
         return segmentSizes;
     }
-//
-//    /** The big part of source's first segment is being moved. */
-//    @Test public void writeSplitSourceBufferLeft() throws Exception {
-//        int writeSize = Segment.SIZE / 2 + 1;
-//
-//        Buffer sink = new Buffer();
-//        sink.writeUtf8(repeat('b', Segment.SIZE - 10));
-//
-//        Buffer source = new Buffer();
-//        source.writeUtf8(repeat('a', Segment.SIZE * 2));
-//        sink.write(source, writeSize);
-//
-//        assertEquals(asList(Segment.SIZE - 10, writeSize), sink.segmentSizes());
-//        assertEquals(asList(Segment.SIZE - writeSize, Segment.SIZE), source.segmentSizes());
-//    }
-//
-//    /** The big part of source's first segment is staying put. */
-//    @Test public void writeSplitSourceBufferRight() throws Exception {
-//        int writeSize = Segment.SIZE / 2 - 1;
-//
-//        Buffer sink = new Buffer();
-//        sink.writeUtf8(repeat('b', Segment.SIZE - 10));
-//
-//        Buffer source = new Buffer();
-//        source.writeUtf8(repeat('a', Segment.SIZE * 2));
-//        sink.write(source, writeSize);
-//
-//        assertEquals(asList(Segment.SIZE - 10, writeSize), sink.segmentSizes());
-//        assertEquals(asList(Segment.SIZE - writeSize, Segment.SIZE), source.segmentSizes());
-//    }
-//
+
+    /** The big part of source's first segment is being moved. */
+    @Test public void writeSplitSourceBufferLeft() throws Exception {
+        int writeSize = Segment.SIZE / 2 + 1;
+
+        Buffer sink = new Buffer();
+        sink.writeUtf8(repeat('b', Segment.SIZE - 10));
+
+        Buffer source = new Buffer();
+        source.writeUtf8(repeat('a', Segment.SIZE * 2));
+        sink.write(source, writeSize);
+
+        assertEquals(Arrays.asList(Segment.SIZE - 10, writeSize), sink.segmentSizes());
+        assertEquals(Arrays.asList(Segment.SIZE - writeSize, Segment.SIZE), source.segmentSizes());
+    }
+
+    /** The big part of source's first segment is staying put. */
+    @Test public void writeSplitSourceBufferRight() throws Exception {
+        int writeSize = Segment.SIZE / 2 - 1;
+
+        Buffer sink = new Buffer();
+        sink.writeUtf8(repeat('b', Segment.SIZE - 10));
+
+        Buffer source = new Buffer();
+        source.writeUtf8(repeat('a', Segment.SIZE * 2));
+        sink.write(source, writeSize);
+
+        assertEquals(Arrays.asList(Segment.SIZE - 10, writeSize), sink.segmentSizes());
+        assertEquals(Arrays.asList(Segment.SIZE - writeSize, Segment.SIZE), source.segmentSizes());
+    }
+
     @Test
     public void writePrefixDoesntSplit() throws Exception {
         Buffer sink = new Buffer();
@@ -190,22 +195,22 @@ public final class BufferTest {
         assertEquals(30, sink.size());
         assertEquals(Segment.SIZE * 2 - 20, source.size());
     }
-//
-//    @Test
-//    public void writePrefixDoesntSplitButRequiresCompact() throws Exception {
-//        Buffer sink = new Buffer();
-//        sink.writeUtf8(repeat('b', Segment.SIZE - 10)); // limit = size - 10
-//        sink.readUtf8(Segment.SIZE - 20); // pos = size = 20
-//
-//        Buffer source = new Buffer();
-//        source.writeUtf8(repeat('a', Segment.SIZE * 2));
-//        sink.write(source, 20);
-//
-//        assertEquals(Arrays.asList(30), sink.segmentSizes());
-//        assertEquals(Arrays.asList(Segment.SIZE - 20, Segment.SIZE), source.segmentSizes());
-//        assertEquals(30, sink.size());
-//        assertEquals(Segment.SIZE * 2 - 20, source.size());
-//    }
+
+    @Test
+    public void writePrefixDoesntSplitButRequiresCompact() throws Exception {
+        Buffer sink = new Buffer();
+        sink.writeUtf8(repeat('b', Segment.SIZE - 10)); // limit = size - 10
+        sink.readUtf8(Segment.SIZE - 20); // pos = size = 20
+
+        Buffer source = new Buffer();
+        source.writeUtf8(repeat('a', Segment.SIZE * 2));
+        sink.write(source, 20);
+
+        assertEquals(Arrays.asList(30), sink.segmentSizes());
+        assertEquals(Arrays.asList(Segment.SIZE - 20, Segment.SIZE), source.segmentSizes());
+        assertEquals(30, sink.size());
+        assertEquals(Segment.SIZE * 2 - 20, source.size());
+    }
 
     @Test
     public void copyToSpanningSegments() throws Exception {
@@ -284,6 +289,57 @@ public final class BufferTest {
         assertEquals("hello, wor", out);
     }
 
+    @Test
+    public void readFromStreamWithCountThrowsOnEof() throws Exception {
+        InputStream in = new ByteArrayInputStream("hello".getBytes(UTF_8));
+        Buffer buffer = new Buffer();
+        try {
+            buffer.readFrom(in, 10);
+            fail();
+        } catch (EOFException expected) {
+        }
+        assertEquals("hello", buffer.readUtf8());
+    }
+
+    @Test
+    public void readFromAndWriteToLargeStreams() throws Exception {
+        byte[] data = new byte[Segment.SIZE * 3 + 1234];
+        new Random(0).nextBytes(data);
+
+        // Hand out a few bytes at a time so reads land at every offset within a segment.
+        InputStream in = new ByteArrayInputStream(data) {
+            @Override public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+        Buffer buffer = new Buffer();
+        buffer.readFrom(in);
+        assertEquals(data.length, buffer.size());
+        assertEquals(Arrays.asList(Segment.SIZE, Segment.SIZE, Segment.SIZE, 1234), buffer.segmentSizes());
+
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        buffer.copyTo(copy, 10, data.length - 20);
+        assertEquals(ByteString.of(data).substring(10, data.length - 10), ByteString.of(copy.toByteArray()));
+        assertEquals(data.length, buffer.size());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out, data.length - 1);
+        buffer.writeTo(out);
+        assertEquals(ByteString.of(data), ByteString.of(out.toByteArray()));
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void writeToMoreThanSizeThrows() throws Exception {
+        Buffer buffer = new Buffer().writeUtf8("abc");
+        try {
+            buffer.writeTo(new ByteArrayOutputStream(), 4);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException expected) {
+        }
+        assertEquals("abc", buffer.readUtf8());
+    }
+
     @Test
     public void moveAllRequestedBytesWithRead() throws Exception {
         Buffer sink = new Buffer();
@@ -330,6 +386,73 @@ public final class BufferTest {
         assertEquals(halfSegment * 4 - 1, buffer.indexOf((byte) 'd', halfSegment * 4 - 1));
     }
 
+    @Test
+    public void indexOfEveryPositionAndAlignment() throws Exception {
+        // Bytes with the high bit set, or next to the target, must not be mistaken for it.
+        byte[] fill = { (byte) 0x00, (byte) 0x7f, (byte) 0x80, (byte) 0xff, (byte) 0x0b };
+        for (byte f : fill) {
+            for (int prefix = 0; prefix < 9; prefix++) {
+                for (int index = 0; index < 24; index++) {
+                    // Skipping a prefix moves the data off the start of the segment's array.
+                    byte[] bytes = new byte[prefix + 24];
+                    Arrays.fill(bytes, f);
+                    bytes[prefix + index] = (byte) 0x0a;
+                    Buffer buffer = new Buffer();
+                    buffer.write(bytes);
+                    buffer.skip(prefix);
+                    assertEquals(index, buffer.indexOf((byte) 0x0a));
+                    assertEquals(-1, buffer.indexOf((byte) 0x0a, index + 1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void indexOfByteStringMatchesNaiveSearch() throws Exception {
+        // A two-letter alphabet makes for many partial matches and matches straddling segments.
+        Random dice = new Random(0);
+        byte[] data = new byte[Segment.SIZE * 3];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (dice.nextInt(8) == 0 ? 'b' : 'a');
+        }
+        Buffer buffer = bufferWithRandomSegmentLayout(dice, data);
+        int[] needleSizes = { 1, 3, 7, 8, 9, 40, 1000, Segment.SIZE + 1 };
+        for (int needleSize : needleSizes) {
+            for (int trial = 0; trial < 20; trial++) {
+                int needleStart = dice.nextInt(data.length - needleSize);
+                ByteString needle = ByteString.of(data, needleStart, needleSize);
+                int fromIndex = dice.nextInt(needleStart + 1);
+                assertEquals(naiveIndexOf(data, needle.toByteArray(), fromIndex),
+                        buffer.indexOf(needle, fromIndex));
+            }
+        }
+        assertEquals(-1, buffer.indexOf(ByteString.encodeUtf8(repeat('b', 40))));
+    }
+
+    @Test
+    public void indexOfElementEveryByteValue() throws Exception {
+        byte[] all = new byte[256];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (byte) i;
+        }
+        Buffer buffer = new Buffer().write(all);
+        for (int i = 0; i < all.length; i++) {
+            assertEquals(i, buffer.indexOfElement(ByteSet.of(all[i])));
+        }
+        assertEquals(-1, buffer.indexOfElement(ByteSet.of(all), all.length));
+    }
+
+    private int naiveIndexOf(byte[] data, byte[] needle, int fromIndex) {
+        outer:
+        for (int i = fromIndex; i <= data.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (data[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
     @Test
     public void byteAt() throws Exception {
         Buffer buffer = new Buffer();
@@ -592,10 +715,63 @@ public final class BufferTest {
         assertEquals("aaa", source.readUtf8());
         assertEquals("aaa", target.readUtf8());
     }
-//
-//    @Test
-//    public void snapshotReportsAccurateSize() throws Exception {
-//        Buffer buf = new Buffer().write(new byte[] { 0, 1, 2, 3 });
-//        assertEquals(1, buf.snapshot(1).size());
-//    }
+
+    @Test
+    public void snapshotReportsAccurateSize() throws Exception {
+        Buffer buf = new Buffer().write(new byte[] { 0, 1, 2, 3 });
+        assertEquals(1, buf.snapshot(1).size());
+    }
+
+    @Test
+    public void readUtf8SequenceStraddlingSegments() throws Exception {
+        String string = "\u00e9\u20ac\ud83c\udf69";
+        byte[] encoded = string.getBytes(UTF_8);
+        for (int i = 1; i < encoded.length; i++) {
+            Buffer buffer = new Buffer();
+            buffer.writeUtf8(repeat('a', Segment.SIZE - i));
+            buffer.write(encoded);
+            buffer.skip(Segment.SIZE - i - 1);
+            assertEquals("a" + string, buffer.readUtf8());
+        }
+    }
+
+    @Test
+    public void readUtf8ReplacesMalformedSequences() throws Exception {
+        assertEquals("a\ufffdb", decodeHex("61ff62").readUtf8());
+        assertEquals("\ufffd\ufffd", decodeHex("c080").readUtf8());
+        assertEquals("\ufffd\ufffd\ufffd", decodeHex("eda080").readUtf8());
+        assertEquals("\ufffdz", decodeHex("f09f8d7a").readUtf8());
+        assertEquals("\ufffd", decodeHex("e282").readUtf8());
+        assertEquals("\ufffd\u00e9", decodeHex("f4c3a9").readUtf8());
+        assertEquals("\ufffd\ufffd", decodeHex("f490").readUtf8());
+    }
+
+    @Test
+    public void readUtf8RandomCodePointsAndSegmentLayout() throws Exception {
+        Random dice = new Random(0);
+        for (int i = 0; i < 50; i++) {
+            StringBuilder prefix = new StringBuilder();
+            StringBuilder suffix = new StringBuilder();
+            int codePointCount = dice.nextInt(Segment.SIZE);
+            for (int j = 0; j < codePointCount; j++) {
+                int codePoint;
+                do {
+                    codePoint = dice.nextInt(4) == 0 ? dice.nextInt(0x80) : dice.nextInt(0x110000);
+                } while (codePoint >= 0xd800 && codePoint <= 0xdfff);
+                (j < codePointCount / 3 ? prefix : suffix).appendCodePoint(codePoint);
+            }
+            byte[] prefixBytes = prefix.toString().getBytes(UTF_8);
+            byte[] suffixBytes = suffix.toString().getBytes(UTF_8);
+            byte[] data = Arrays.copyOf(prefixBytes, prefixBytes.length + suffixBytes.length);
+            System.arraycopy(suffixBytes, 0, data, prefixBytes.length, suffixBytes.length);
+
+            Buffer buffer = bufferWithRandomSegmentLayout(dice, data);
+            assertEquals(prefix.toString(), buffer.readUtf8(prefixBytes.length));
+            assertEquals(suffix.toString(), buffer.readUtf8());
+        }
+    }
+
+    private static Buffer decodeHex(String hex) {
+        return new Buffer().write(ByteString.decodeHex(hex).toByteArray());
+    }
 }
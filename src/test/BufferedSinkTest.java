@@ -173,6 +173,37 @@ public final class BufferedSinkTest {
         assertEquals(ByteString.decodeHex("72616ec999"), data.readByteString());
     }
 
+    @Test
+    public void writeUtf8SurrogatePair() throws IOException {
+        sink.writeUtf8("a\ud83c\udf69c");
+        sink.flush();
+        assertEquals(ByteString.decodeHex("61f09f8da963"), data.readByteString());
+    }
+
+    @Test
+    public void writeUtf8LoneSurrogates() throws IOException {
+        sink.writeUtf8("a\ud83cb\udf69c\ud83c");
+        sink.flush();
+        assertEquals("a?b?c?", data.readUtf8());
+    }
+
+    @Test
+    public void writeUtf8SubstringSplittingSurrogatePair() throws IOException {
+        sink.writeUtf8("\ud83c\udf69\ud83c\udf69", 1, 3);
+        sink.flush();
+        assertEquals("??", data.readUtf8());
+    }
+
+    @Test
+    public void writeUtf8AcrossSegmentBoundaries() throws IOException {
+        for (int prefix = Segment.SIZE - 4; prefix <= Segment.SIZE; prefix++) {
+            String string = repeat('a', prefix) + "\u00e9\u20ac\ud83c\udf69" + repeat('b', Segment.SIZE);
+            sink.writeUtf8(string);
+            sink.flush();
+            assertEquals(ByteString.encodeUtf8(string), data.readByteString());
+        }
+    }
+
     @Test
     public void writeStringWithCharset() throws IOException {
         sink.writeString("təˈranəˌsôr", Charset.forName("utf-32be"));
@@ -1,8 +1,15 @@
 package test;
 
 import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.List;
@@ -80,6 +87,49 @@ public final class BufferedSourceTest {
             }
         };
 
+        /**
+         * Appends everything written to a temp file, which is mapped again (at the same read position)
+         * before each call on the source.
+         */
+        Factory MAPPED_FILE = new Factory() {
+            @Override public Pipe pipe() {
+                final Buffer buffer = new Buffer();
+                final File file;
+                try {
+                    file = File.createTempFile("BufferedSourceTest", ".bin");
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+                file.deleteOnExit();
+                Pipe result = new Pipe();
+                result.sink = buffer;
+                result.source = (BufferedSource) Proxy.newProxyInstance(BufferedSource.class.getClassLoader(),
+                        new Class<?>[] { BufferedSource.class }, new InvocationHandler() {
+                            MappedFileSource mapped;
+
+                            @Override public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                                if (mapped == null || buffer.size() > 0) {
+                                    long position = mapped != null ? mapped.position() : 0L;
+                                    try (OutputStream out = new FileOutputStream(file, true)) {
+                                        buffer.writeTo(out);
+                                    }
+                                    mapped = Okio.mappedSource(file.toPath()).seek(position);
+                                }
+                                try {
+                                    return method.invoke(mapped, args);
+                                } catch (InvocationTargetException e) {
+                                    throw e.getCause();
+                                }
+                            }
+                        });
+                return result;
+            }
+
+            @Override public String toString() {
+                return "MappedFileSource";
+            }
+        };
+
         Pipe pipe();
     }
 
@@ -93,7 +143,8 @@ public final class BufferedSourceTest {
         return Arrays.asList(
                 new Object[] { Factory.BUFFER},
                 new Object[] { Factory.REAL_BUFFERED_SOURCE},
-                new Object[] { Factory.ONE_BYTE_AT_A_TIME});
+                new Object[] { Factory.ONE_BYTE_AT_A_TIME},
+                new Object[] { Factory.MAPPED_FILE});
     }
 
     @Parameter public Factory factory;
@@ -203,6 +254,7 @@ public final class BufferedSourceTest {
     }
 
     @Test public void readAll() throws IOException {
+        assumeTrue(factory != Factory.MAPPED_FILE); // A mapped source doesn't read back its buffer.
         source.buffer().writeUtf8("abc");
         sink.writeUtf8("def");
 
@@ -212,6 +264,51 @@ public final class BufferedSourceTest {
         assertTrue(source.exhausted());
     }
 
+    /** Reads pull only what they need from upstream, even when upstream never ends. */
+    @Test public void readsAreDemandDriven() throws IOException {
+        assumeTrue(factory == Factory.REAL_BUFFERED_SOURCE);
+        final long[] produced = new long[1];
+        Source endless = new Source() {
+            @Override public long read(Buffer sink, long byteCount) throws IOException {
+                byte[] data = new byte[(int) Math.min(byteCount, Segment.SIZE)];
+                sink.write(data);
+                produced[0] += data.length;
+                return data.length;
+            }
+
+            @Override public void close() throws IOException {
+            }
+
+            @Override public Timeout timeout() {
+                return Timeout.NONE;
+            }
+        };
+        BufferedSource source = new RealBufferedSource(endless);
+        source.readFully(new byte[4]);
+        assertEquals(0, source.readInt());
+        source.skip(1024 * 1024);
+        assertEquals(8, source.readByteArray(8).length);
+        assertEquals(1, source.read(new Buffer(), 1));
+        assertTrue(produced[0] <= 1024 * 1024 + 2 * Segment.SIZE);
+        assertTrue(source.buffer().size() < Segment.SIZE);
+    }
+
+    @Test public void readAllStreamsThroughBoundedBuffer() throws IOException {
+        assumeTrue(factory == Factory.REAL_BUFFERED_SOURCE);
+        Buffer upstream = new Buffer();
+        upstream.write(new byte[1024 * 1024]);
+        BufferedSource source = new RealBufferedSource(upstream, 4 * Segment.SIZE);
+        final long[] maxBuffered = new long[1];
+        Sink sink = new ForwardingSink(Okio.blackhole()) {
+            @Override public void write(Buffer source, long byteCount) throws IOException {
+                maxBuffered[0] = Math.max(maxBuffered[0], source.size());
+                super.write(source, byteCount);
+            }
+        };
+        assertEquals(1024 * 1024, source.readAll(sink));
+        assertTrue(maxBuffered[0] <= 5 * Segment.SIZE);
+    }
+
     @Test public void readAllExhausted() throws IOException {
         MockSink mockSink = new MockSink();
         assertEquals(0, source.readAll(mockSink));
@@ -371,6 +468,13 @@ public final class BufferedSourceTest {
         assertEquals("vəˈläsəˌraptər", source.readString(Charset.forName("utf-32")));
     }
 
+    @Test public void readStringUtf8SpansSegments() throws Exception {
+        sink.writeUtf8(repeat('a', Segment.SIZE - 1)).writeUtf8("\u00e9\u00e9");
+        source.skip(Segment.SIZE - 1);
+        assertEquals("\u00e9", source.readString(2, Charset.forName("UTF-8")));
+        assertEquals("\u00e9", source.readString(Charset.forName("UTF-8")));
+    }
+
     @Test public void readUtf8SpansSegments() throws Exception {
         sink.writeUtf8(repeat('a', Segment.SIZE * 2));
         source.skip(Segment.SIZE - 1);
@@ -605,6 +709,25 @@ public final class BufferedSourceTest {
         assertEquals(Segment.SIZE * 2 + 2, source.indexOf(ByteString.encodeUtf8("g")));
     }
 
+    /** A megabyte-long line is found with one upstream read per segment, not one per byte. */
+    @Test public void indexOfReadsUpstreamASegmentAtATime() throws IOException {
+        assumeTrue(factory == Factory.REAL_BUFFERED_SOURCE);
+        Buffer upstream = new Buffer();
+        upstream.writeUtf8(repeat('a', 1024 * 1024));
+        upstream.writeUtf8("\r\n");
+        final int[] reads = new int[1];
+        BufferedSource source = new RealBufferedSource(new ForwardingSource(upstream) {
+            @Override public long read(Buffer sink, long byteCount) throws IOException {
+                reads[0]++;
+                return super.read(sink, byteCount);
+            }
+        });
+        assertEquals(1024 * 1024 + 1, source.indexOf((byte) '\n'));
+        assertEquals(1024 * 1024, source.indexOf(ByteString.encodeUtf8("\r\n")));
+        assertEquals(1024 * 1024, source.indexOfElement(ByteString.encodeUtf8("\r")));
+        assertEquals(1024 * 1024 / Segment.SIZE + 1, reads[0]);
+    }
+
     @Test public void indexOfElement() throws IOException {
         sink.writeUtf8("a").writeUtf8(repeat('b', Segment.SIZE)).writeUtf8("c");
         assertEquals(0, source.indexOfElement(ByteString.encodeUtf8("DEFGaHIJK")));
@@ -621,6 +744,16 @@ public final class BufferedSourceTest {
         assertEquals(15, source.indexOfElement(ByteString.encodeUtf8("DEFGHIJKb"), 15));
     }
 
+    @Test public void indexOfElementByteSet() throws IOException {
+        sink.writeUtf8("a").writeUtf8(repeat('b', Segment.SIZE)).writeUtf8("cÿ");
+        ByteSet separators = ByteSet.of(ByteString.encodeUtf8("c,;"));
+        assertEquals(Segment.SIZE + 1, source.indexOfElement(separators));
+        assertEquals(Segment.SIZE + 1, source.indexOfElement(separators, Segment.SIZE + 1));
+        assertEquals(-1, source.indexOfElement(separators, Segment.SIZE + 2));
+        assertEquals(Segment.SIZE + 2, source.indexOfElement(ByteSet.of((byte) 0xc3, (byte) 0x80)));
+        assertEquals(-1, source.indexOfElement(ByteSet.of()));
+    }
+
     @Test public void request() throws IOException {
         sink.writeUtf8("a").writeUtf8(repeat('b', Segment.SIZE)).writeUtf8("c");
         assertTrue(source.request(Segment.SIZE + 2));
@@ -676,6 +809,7 @@ public final class BufferedSourceTest {
     }
 
     @Test public void inputStreamSkip() throws Exception {
+        assumeTrue(factory != Factory.MAPPED_FILE); // The stream's mapping doesn't see later writes.
 //        sink.writeUtf8("writeUtf8abcde");
         InputStream in = source.inputStream();
 //        assertEquals(4, in.skip(4));
@@ -945,6 +1079,35 @@ public final class BufferedSourceTest {
         assertEquals("ef", source.readUtf8());
     }
 
+    @Test
+    public void selectFromManyOptions() throws IOException {
+        ByteString[] fields = new ByteString[60];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = ByteString.encodeUtf8("\"field" + i + "\":");
+        }
+        Options options = Options.of(fields);
+
+        sink.writeUtf8("\"field7\":\"field59\":\"field5\":\"field60\":");
+        assertEquals(7, source.select(options));
+        assertEquals(59, source.select(options));
+        assertEquals(5, source.select(options));
+        assertEquals(-1, source.select(options));
+        assertEquals("\"field60\":", source.readUtf8());
+    }
+
+    @Test
+    public void selectShorterOptionWhenLongerOneDoesNotMatch() throws IOException {
+        Options options = Options.of(
+                ByteString.encodeUtf8("abcd"),
+                ByteString.encodeUtf8("ab"),
+                ByteString.encodeUtf8("abcde"));
+        sink.writeUtf8("abcxabc");
+        assertEquals(1, source.select(options));
+        assertEquals("cx", source.readUtf8(2));
+        assertEquals(1, source.select(options));
+        assertEquals("c", source.readUtf8());
+    }
+
     @Test
     public void selectNoByteStrings() throws IOException {
         Options options = Options.of();
@@ -1017,4 +1180,30 @@ public final class BufferedSourceTest {
         // Bytes offset plus byte count longer than bytes length.
         assertFalse(source.rangeEquals(0, ByteString.encodeUtf8("A"), 1, 1));
     }
+
+    @Test public void offsetsBeyondIntRange() throws IOException {
+        sink.writeUtf8("abc\n");
+        assertEquals(-1, source.indexOf((byte) 'a', 1L << 32));
+        assertEquals(2, source.indexOf((byte) 'c', 0, Long.MAX_VALUE));
+        assertEquals(-1, source.indexOf(ByteString.encodeUtf8("bc"), Long.MAX_VALUE));
+        assertEquals(-1, source.indexOfElement(ByteString.encodeUtf8("c"), Integer.MAX_VALUE + 1L));
+        assertFalse(source.rangeEquals(Long.MAX_VALUE, ByteString.encodeUtf8("a")));
+        assertFalse(source.rangeEquals(1L << 32, ByteString.encodeUtf8("a")));
+        assertEquals("abc", source.readUtf8LineStrict(Long.MAX_VALUE - 1));
+    }
+
+    @Test public void readIntoStringOrArrayBeyondIntRangeThrows() throws IOException {
+        sink.writeUtf8("abc");
+        try {
+            source.readUtf8(Integer.MAX_VALUE + 1L);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            source.readByteArray(Integer.MAX_VALUE + 1L);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals("abc", source.readUtf8(3L));
+    }
 }
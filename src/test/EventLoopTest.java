@@ -0,0 +1,165 @@
+package test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.EventLoop;
+import okio.NonBlockingSink;
+import okio.NonBlockingSource;
+import okio.Okio;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class EventLoopTest {
+    private ServerSocketChannel server;
+
+    @Before public void setUp() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @After public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test public void nonBlockingSourceReturnsZeroWhenNothingIsReady() throws Exception {
+        try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+             SocketChannel accepted = server.accept()) {
+            accepted.configureBlocking(false);
+            NonBlockingSource source = Okio.nonBlockingSource(accepted);
+            Buffer buffer = new Buffer();
+            assertEquals(0, source.read(buffer, 100));
+            assertEquals(0, buffer.size());
+
+            Okio.buffer(Okio.sink(client)).writeUtf8("abc").flush();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (buffer.size() < 3 && System.nanoTime() < deadline) {
+                source.read(buffer, 100);
+            }
+            assertEquals("abc", buffer.readUtf8());
+
+            client.shutdownOutput();
+            while (source.read(buffer, 100) == 0 && System.nanoTime() < deadline) {
+            }
+            assertEquals(-1, source.read(buffer, 100));
+        }
+    }
+
+    @Test public void nonBlockingSinkTakesOnlyWhatFits() throws Exception {
+        // The connection is never accepted, so nothing drains the socket's buffers.
+        try (SocketChannel client = SocketChannel.open(server.getLocalAddress())) {
+            client.configureBlocking(false);
+            NonBlockingSink sink = Okio.nonBlockingSink(client);
+            Buffer buffer = new Buffer();
+            buffer.write(new byte[64 * 1024 * 1024]);
+            long written = sink.write(buffer, buffer.size());
+            assertTrue(written > 0);
+            assertEquals(64 * 1024 * 1024 - written, buffer.size());
+            assertEquals(0, sink.write(buffer, buffer.size()));
+        }
+    }
+
+    @Test public void blockingChannelsRejected() throws Exception {
+        try (SocketChannel client = SocketChannel.open(server.getLocalAddress())) {
+            try {
+                Okio.nonBlockingSource(client);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                Okio.nonBlockingSink(client);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test public void oneThreadEchoesManyConnections() throws Exception {
+        int connectionCount = 200;
+        CountDownLatch closed = new CountDownLatch(connectionCount);
+        EventLoop loop = new EventLoop();
+        loop.listen(server, new EventLoop.Handler() {
+            @Override public void onReadable(EventLoop.Connection connection) throws IOException {
+                connection.sink().write(connection.source(), connection.source().size());
+                connection.flush();
+            }
+
+            @Override public void onClosed(EventLoop.Connection connection, IOException cause) {
+                closed.countDown();
+            }
+        });
+        Thread thread = new Thread(loop, "EventLoopTest");
+        thread.start();
+
+        try {
+            Random random = new Random(0);
+            List<SocketChannel> clients = new ArrayList<>();
+            List<ByteString> sent = new ArrayList<>();
+            for (int i = 0; i < connectionCount; i++) {
+                SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                byte[] data = new byte[random.nextInt(32 * 1024) + 1];
+                random.nextBytes(data);
+                BufferedSink sink = Okio.buffer(Okio.sink(client));
+                sink.write(data);
+                sink.flush();
+                clients.add(client);
+                sent.add(ByteString.of(data));
+            }
+            for (int i = 0; i < connectionCount; i++) {
+                SocketChannel client = clients.get(i);
+                BufferedSource source = Okio.buffer(Okio.source(client));
+                assertEquals(sent.get(i), source.readByteString(sent.get(i).size()));
+                client.shutdownOutput();
+                assertTrue(source.exhausted());
+                client.close();
+            }
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+        } finally {
+            loop.close();
+            thread.join();
+        }
+    }
+
+    @Test public void failedListenerLeavesLoopRunning() throws Exception {
+        EventLoop loop = new EventLoop();
+        EventLoop.Handler echo = connection -> {
+            connection.sink().write(connection.source(), connection.source().size());
+            connection.flush();
+        };
+        ServerSocketChannel closedServer = ServerSocketChannel.open();
+        loop.listen(closedServer, echo);
+        closedServer.close(); // Registering it on the loop's thread fails.
+        loop.listen(server, echo);
+        Thread thread = new Thread(loop, "EventLoopTest");
+        thread.start();
+
+        try (SocketChannel client = SocketChannel.open(server.getLocalAddress())) {
+            BufferedSink sink = Okio.buffer(Okio.sink(client));
+            sink.writeUtf8("abc").flush();
+            BufferedSource source = Okio.buffer(Okio.source(client));
+            source.timeout().timeout(5, TimeUnit.SECONDS);
+            assertEquals("abc", source.readUtf8(3));
+            assertTrue(thread.isAlive());
+        } finally {
+            loop.close();
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.FileChannelSink;
+import okio.FileChannelSource;
+import okio.Okio;
+import okio.Segment;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static test.TestUtil.UTF_8;
+
+public final class FileChannelTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readWriteManySegments() throws Exception {
+        Path path = temporaryFolder.newFile().toPath();
+        byte[] data = new byte[Segment.SIZE * 3 + 1234];
+        new Random(0).nextBytes(data);
+
+        BufferedSink sink = Okio.buffer(Okio.sink(path));
+        sink.write(data);
+        sink.close();
+        assertEquals(data.length, Files.size(path));
+
+        BufferedSource source = Okio.buffer(Okio.source(path));
+        assertEquals(ByteString.of(data), source.readByteString());
+        source.close();
+    }
+
+    @Test
+    public void openFailuresAreFileNotFound() throws Exception {
+        Path missing = temporaryFolder.getRoot().toPath().resolve("missing");
+        try {
+            Okio.source(missing);
+            fail();
+        } catch (FileNotFoundException expected) {
+            assertTrue(expected.getCause() instanceof NoSuchFileException);
+        }
+        try {
+            Okio.sink(missing.resolve("child"));
+            fail();
+        } catch (FileNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void positionalReadsAndWrites() throws Exception {
+        Path path = temporaryFolder.newFile().toPath();
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        FileChannelSink hello = new FileChannelSink(channel);
+        FileChannelSink world = new FileChannelSink(channel, 7);
+        world.write(new Buffer().writeUtf8("world!"), 6);
+        hello.write(new Buffer().writeUtf8("Hello, "), 7);
+        assertEquals(7, hello.position());
+        assertEquals(13, world.position());
+        assertEquals(0, channel.position());
+
+        FileChannelSource source = new FileChannelSource(channel, 7);
+        Buffer buffer = new Buffer();
+        assertEquals(6, source.read(buffer, 100));
+        assertEquals("world!", buffer.readUtf8());
+        assertEquals(-1, source.read(buffer, 100));
+        assertEquals(0, buffer.size());
+
+        source.position(0);
+        assertEquals(5, source.read(buffer, 5));
+        assertEquals("Hello", buffer.readUtf8());
+        assertEquals(0, channel.position());
+        channel.close();
+    }
+
+    @Test
+    public void transferToAndFrom() throws Exception {
+        Path from = temporaryFolder.newFile().toPath();
+        Path to = temporaryFolder.newFile().toPath();
+        byte[] data = new byte[Segment.SIZE * 2 + 10];
+        new Random(1).nextBytes(data);
+
+        FileChannelSink sink = new FileChannelSink(FileChannel.open(from, StandardOpenOption.WRITE));
+        assertEquals(data.length, sink.transferFrom(Channels.newChannel(new ByteArrayInputStream(data)), Long.MAX_VALUE));
+        sink.close();
+
+        FileChannelSource source = new FileChannelSource(FileChannel.open(from, StandardOpenOption.READ), 10);
+        FileChannel target = FileChannel.open(to, StandardOpenOption.WRITE);
+        assertEquals(100, source.transferTo(target, 100));
+        assertEquals(data.length - 110, source.transferTo(target, Long.MAX_VALUE));
+        assertEquals(0, source.transferTo(target, 1));
+        source.close();
+        target.close();
+
+        assertEquals(ByteString.of(data).substring(10), ByteString.of(Files.readAllBytes(to)));
+    }
+
+    @Test
+    public void readsHonorTheFilesEnd() throws Exception {
+        Path path = temporaryFolder.newFile().toPath();
+        Files.write(path, "abc".getBytes(UTF_8));
+        FileChannelSource source = new FileChannelSource(FileChannel.open(path, StandardOpenOption.READ));
+        Buffer buffer = new Buffer();
+        assertEquals(3, source.read(buffer, Segment.SIZE));
+        assertEquals(-1, source.read(buffer, Segment.SIZE));
+        assertEquals("abc", buffer.readUtf8());
+        source.close();
+    }
+}
@@ -0,0 +1,177 @@
+package okio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static test.TestUtil.UTF_8;
+
+/** Reads that straddle the mapping's chunks, using 16-byte chunks so every value crosses one. */
+public final class MappedFileSourceTest {
+    private File file;
+
+    @Before public void setUp() throws IOException {
+        file = File.createTempFile("MappedFileSourceTest", ".bin");
+    }
+
+    @After public void tearDown() {
+        file.delete();
+    }
+
+    private MappedFileSource map(byte[] content) throws IOException {
+        Files.write(file.toPath(), content);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new MappedFileSource(channel, 4);
+        }
+    }
+
+    @Test public void readIntegersAcrossChunks() throws IOException {
+        Buffer content = new Buffer();
+        content.writeUtf8("0123456789abcd");
+        content.writeInt(0x01020304);
+        content.writeUtf8("xxxxxxxxxxxxx");
+        content.writeLongLe(0x0102030405060708L);
+        content.writeShort((short) 0x7f01);
+        MappedFileSource source = map(content.readByteArray());
+        source.skip(14);
+        assertEquals(0x01020304, source.readInt());
+        source.skip(13);
+        assertEquals(0x0102030405060708L, source.readLongLe());
+        assertEquals(0x7f01, source.readShort());
+        assertTrue(source.exhausted());
+    }
+
+    @Test public void searchAcrossChunks() throws IOException {
+        MappedFileSource source = map("aaaaaaaaaaaaaaabbbbbbbbbbbbbbbbbc\nline two\r\n".getBytes(UTF_8));
+        assertEquals(15, source.indexOf((byte) 'b'));
+        assertEquals(32, source.indexOf((byte) 'c', 16));
+        assertEquals(-1, source.indexOf((byte) 'c', 0, 32));
+        assertEquals(14, source.indexOf(ByteString.encodeUtf8("ab")));
+        assertEquals(31, source.indexOf(ByteString.encodeUtf8("bc\n")));
+        assertEquals(33, source.indexOfElement(ByteString.encodeUtf8("\n\r")));
+        assertTrue(source.rangeEquals(12, ByteString.encodeUtf8("aaabbbbbbbbbbbbbbbbbc")));
+        assertFalse(source.rangeEquals(12, ByteString.encodeUtf8("aaabbbbbbbbbbbbbbbbbd")));
+
+        Options options = Options.of(
+                ByteString.encodeUtf8("aaaaaaaaaaaaaaaab"),
+                ByteString.encodeUtf8("aaaaaaaaaaaaaaab"));
+        assertEquals(1, source.select(options));
+        assertEquals("bbbbbbbbbbbbbbbbc", source.readUtf8Line());
+        assertEquals("line two", source.readUtf8LineStrict());
+        assertTrue(source.exhausted());
+    }
+
+    @Test public void readUtf8AcrossChunks() throws IOException {
+        String text = "aaaaaaaaaaaaaaé€💩aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+        MappedFileSource source = map(text.getBytes(UTF_8));
+        assertEquals(text, source.readUtf8());
+    }
+
+    @Test public void seek() throws IOException {
+        MappedFileSource source = map("0123456789abcdefghijklmnopqrstuvwxyz".getBytes(UTF_8));
+        assertEquals(36, source.size());
+        assertEquals("xyz", source.seek(33).readUtf8());
+        assertEquals("0123", source.seek(0).readUtf8(4));
+        assertEquals(4, source.position());
+        assertEquals("fghij", source.seek(15).readUtf8(5));
+        source.seek(36);
+        assertTrue(source.exhausted());
+        try {
+            source.seek(37);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test public void bufferHoldsRequestedBytes() throws IOException {
+        MappedFileSource source = map("0123456789abcdefghijklmnopqrstuvwxyz".getBytes(UTF_8));
+        assertEquals(0, source.buffer().size());
+        source.require(20);
+        assertEquals(36, source.buffer().size());
+        assertEquals("0123", source.buffer().readUtf8(4));
+        assertEquals(4, source.position());
+        source.skip(2);
+        assertEquals('6', source.buffer().getByte(0));
+        assertEquals('6', source.readByte());
+        assertEquals("789a", source.readUtf8(4));
+        assertEquals(0, source.buffer().size());
+        assertEquals(11, source.position());
+    }
+
+    @Test public void bytesWrittenToBufferAreNotRead() throws IOException {
+        MappedFileSource source = map("0123456789".getBytes(UTF_8));
+        source.buffer().writeUtf8("abc");
+        assertEquals(0, source.position());
+        assertEquals('0', source.readByte());
+        assertEquals("1234", source.readUtf8(4));
+
+        source.require(2);
+        source.buffer().writeUtf8("xyz");
+        assertEquals(5, source.position());
+        assertEquals('5', source.readByte());
+        assertEquals("6789", source.readUtf8(4));
+        assertTrue(source.exhausted());
+    }
+
+    @Test public void inflateMappedFile() throws IOException {
+        String text = repeatedText();
+        Buffer deflated = new Buffer();
+        try (OutputStream out = new DeflaterOutputStream(deflated.outputStream())) {
+            out.write(text.getBytes(UTF_8));
+        }
+        InflaterSource source = new InflaterSource(map(deflated.readByteArray()), new Inflater());
+        Buffer inflated = new Buffer();
+        while (source.read(inflated, Integer.MAX_VALUE) != -1) {
+        }
+        assertEquals(text, inflated.readUtf8());
+    }
+
+    @Test public void gunzipMappedFile() throws IOException {
+        String text = repeatedText();
+        Buffer gzipped = new Buffer();
+        try (OutputStream out = new GZIPOutputStream(gzipped.outputStream())) {
+            out.write(text.getBytes(UTF_8));
+        }
+        BufferedSource source = Okio.buffer(new GzipSource(map(gzipped.readByteArray())));
+        assertEquals(text, source.readUtf8());
+    }
+
+    /** Text that compresses into many chunks of the mapping. */
+    private static String repeatedText() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            result.append(i).append(' ');
+        }
+        return result.toString();
+    }
+
+    @Test public void readAfterClose() throws IOException {
+        MappedFileSource source = map("abc".getBytes(UTF_8));
+        source.close();
+        try {
+            source.readByte();
+            fail();
+        } catch (IOException expected) {
+            assertEquals("closed", expected.getMessage());
+        }
+        try {
+            source.readUtf8();
+            fail();
+        } catch (IOException expected) {
+            assertEquals("closed", expected.getMessage());
+        }
+    }
+}
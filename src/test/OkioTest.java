@@ -3,6 +3,8 @@ package test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -11,9 +13,11 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import static okio.Segment.SIZE;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static test.TestUtil.UTF_8;
 import static test.TestUtil.repeat;
 
 public final class OkioTest {
@@ -86,30 +90,54 @@ public final class OkioTest {
         assertEquals("a" + repeat('b', 9998) + "c", out.toString("UTF-8"));
     }
 
-//    @Test
-//    public void sourceFromInputStream() throws Exception {
-//        InputStream in = new ByteArrayInputStream(
-//                ("a" + repeat('b', SIZE * 2) + "c").getBytes(UTF_8));
-//
-//        // Source: ab...bc
-//        Source source = Okio.source(in);
-//        Buffer sink = new Buffer();
-//
-//        // Source: b...bc. Sink: abb.
-//        assertEquals(3, source.read(sink, 3));
-//        assertEquals("abb", sink.readUtf8(3));
-//
-//        // Source: b...bc. Sink: b...b.
-//        assertEquals(SIZE, source.read(sink, 20000));
-//        assertEquals(repeat('b', SIZE), sink.readUtf8());
-//
-//        // Source: b...bc. Sink: b...bc.
-//        assertEquals(SIZE - 1, source.read(sink, 20000));
-//        assertEquals(repeat('b', SIZE - 2) + "c", sink.readUtf8());
-//
-//        // Source and sink are empty.
-//        assertEquals(-1, source.read(sink, 1));
-//    }
+    @Test
+    public void sourceFromInputStream() throws Exception {
+        InputStream in = new ByteArrayInputStream(
+                ("a" + repeat('b', SIZE * 2) + "c").getBytes(UTF_8));
+
+        // Source: ab...bc
+        Source source = Okio.source(in);
+        Buffer sink = new Buffer();
+
+        // Source: b...bc. Sink: abb.
+        assertEquals(3, source.read(sink, 3));
+        assertEquals("abb", sink.readUtf8(3));
+
+        // Source: b...bc. Sink: b...b.
+        assertEquals(SIZE, source.read(sink, 20000));
+        assertEquals(repeat('b', SIZE), sink.readUtf8());
+
+        // Source: b...bc. Sink: b...bc.
+        assertEquals(SIZE - 1, source.read(sink, 20000));
+        assertEquals(repeat('b', SIZE - 2) + "c", sink.readUtf8());
+
+        // Source and sink are empty.
+        assertEquals(-1, source.read(sink, 1));
+    }
+
+    @Test
+    public void bufferedSourceFromStreamThatReportsNothingAvailable() throws Exception {
+        // Like a socket or pipe, this stream can't say how much it will return without blocking.
+        InputStream in = new ByteArrayInputStream(("a" + repeat('b', SIZE * 2) + "c").getBytes(UTF_8)) {
+            @Override public synchronized int available() {
+                return 0;
+            }
+        };
+        BufferedSource source = new RealBufferedSource(in);
+        assertEquals("a" + repeat('b', SIZE * 2) + "c", source.readUtf8());
+        assertTrue(source.exhausted());
+    }
+
+    @Test
+    public void sourceFromInputStreamHonorsDeadline() throws Exception {
+        Source source = Okio.source(new ByteArrayInputStream(new byte[100]));
+        source.timeout().deadlineNanoTime(System.nanoTime() - 1);
+        try {
+            source.read(new Buffer(), 1);
+            fail();
+        } catch (InterruptedIOException expected) {
+        }
+    }
 
     @Test
     public void sourceFromInputStreamBounds() throws Exception {
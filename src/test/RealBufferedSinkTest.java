@@ -0,0 +1,276 @@
+package test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.DeflaterSink;
+import okio.FlushPolicy;
+import okio.ForwardingSink;
+import okio.GzipSink;
+import okio.GzipSource;
+import okio.InflaterSource;
+import okio.Okio;
+import okio.Pipe;
+import okio.Segment;
+import okio.Sink;
+import okio.Source;
+import okio.Timeout;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static test.TestUtil.repeat;
+
+public final class RealBufferedSinkTest {
+
+    /** A buffer that records the byte count of each write it receives. */
+    private static final class RecordingBuffer extends Buffer {
+        final List<Long> writes = new ArrayList<>();
+
+        @Override public void write(Buffer source, long byteCount) throws IOException {
+            writes.add(byteCount);
+            super.write(source, byteCount);
+        }
+    }
+
+    @Test public void smallWritesAreNotEmitted() throws IOException {
+        MockSink mockSink = new MockSink();
+        BufferedSink sink = Okio.buffer(mockSink);
+        sink.writeUtf8("abc");
+        sink.writeByte((byte) 'd');
+        Buffer frame = new Buffer();
+        frame.writeUtf8("ef");
+        sink.write(frame, 2);
+        mockSink.assertLog();
+        sink.flush();
+        mockSink.assertLog("write([hex=616263646566], 6)", "flush()");
+    }
+
+    @Test public void emitWritesWithoutFlushing() throws IOException {
+        MockSink mockSink = new MockSink();
+        BufferedSink sink = Okio.buffer(mockSink);
+        sink.writeUtf8("abc");
+        sink.emitCompleteSegments();
+        mockSink.assertLog();
+        sink.emit();
+        mockSink.assertLog("write([hex=616263], 3)");
+        sink.emit();
+        mockSink.assertLog("write([hex=616263], 3)");
+    }
+
+    @Test public void completeSegmentsAreEmittedOnWrite() throws IOException {
+        RecordingBuffer data = new RecordingBuffer();
+        BufferedSink sink = Okio.buffer((Sink) data);
+        Buffer source = new Buffer();
+        source.writeUtf8(repeat('a', Segment.SIZE * 2 + 10));
+        sink.write(source, source.size());
+        assertEquals(Arrays.asList((long) Segment.SIZE * 2), data.writes);
+        sink.flush();
+        assertEquals(Segment.SIZE * 2 + 10, data.size());
+    }
+
+    @Test public void writeAllEmitsCompleteSegments() throws IOException {
+        RecordingBuffer data = new RecordingBuffer();
+        BufferedSink sink = Okio.buffer((Sink) data);
+        Buffer source = new Buffer();
+        source.writeUtf8(repeat('a', Segment.SIZE * 3 + 10));
+        assertEquals(Segment.SIZE * 3 + 10, sink.writeAll(source));
+        assertEquals(Segment.SIZE * 3, data.size());
+        assertEquals(10, sink.buffer().size());
+    }
+
+    @Test public void bytePolicyCoalescesFrames() throws IOException {
+        RecordingBuffer data = new RecordingBuffer();
+        BufferedSink sink = Okio.buffer(data, FlushPolicy.bytes(100));
+        for (int i = 0; i < 30; i++) {
+            sink.writeInt(i);
+            sink.writeUtf8("frame");
+        }
+        // Frames are 9 bytes; whatever is buffered goes once the 100th byte is written.
+        assertEquals(Arrays.asList(103L, 104L), data.writes);
+        sink.flush();
+        assertEquals(Arrays.asList(103L, 104L, 63L), data.writes);
+    }
+
+    @Test public void segmentPolicyWaitsForSegments() throws IOException {
+        RecordingBuffer data = new RecordingBuffer();
+        BufferedSink sink = Okio.buffer(data, FlushPolicy.segments(2));
+        sink.writeUtf8(repeat('a', Segment.SIZE + 10));
+        assertEquals(0, data.writes.size());
+        sink.writeUtf8(repeat('b', Segment.SIZE));
+        assertEquals(Arrays.asList((long) Segment.SIZE * 2), data.writes);
+        assertEquals(10, sink.buffer().size());
+    }
+
+    @Test public void maxDelayFlushesIdleSink() throws IOException {
+        Pipe pipe = new Pipe(1024);
+        BufferedSink sink = Okio.buffer(pipe.sink(),
+                FlushPolicy.bytes(1024).withMaxDelay(50, TimeUnit.MILLISECONDS));
+        BufferedSource source = Okio.buffer(pipe.source());
+        source.timeout().timeout(5, TimeUnit.SECONDS);
+
+        long start = System.nanoTime();
+        sink.writeUtf8("hello");
+        assertEquals("hello", source.readUtf8(5));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        sink.writeUtf8("again");
+        assertEquals("again", source.readUtf8(5));
+        sink.close();
+    }
+
+    @Test public void slowSinkDoesNotDelayOtherFlushes() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Sink stuck = new ForwardingSink(new Buffer()) {
+            @Override public void write(Buffer source, long byteCount) throws IOException {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                super.write(source, byteCount);
+            }
+        };
+        BufferedSink slow = Okio.buffer(stuck, FlushPolicy.bytes(1024).withMaxDelay(10, TimeUnit.MILLISECONDS));
+        slow.writeUtf8("a");
+        Thread.sleep(100); // Its flush is now stuck downstream.
+
+        Pipe pipe = new Pipe(1024);
+        BufferedSink sink = Okio.buffer(pipe.sink(),
+                FlushPolicy.bytes(1024).withMaxDelay(50, TimeUnit.MILLISECONDS));
+        BufferedSource source = Okio.buffer(pipe.source());
+        source.timeout().timeout(5, TimeUnit.SECONDS);
+        long start = System.nanoTime();
+        sink.writeUtf8("hello");
+        assertEquals("hello", source.readUtf8(5));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        release.countDown();
+    }
+
+    @Test public void writeAllDoesNotBlockFlushWhileSourceWaits() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Source upstream = new Source() {
+            boolean first = true;
+
+            @Override public long read(Buffer sink, long byteCount) throws IOException {
+                if (first) {
+                    first = false;
+                    sink.writeUtf8("hello");
+                    return 5;
+                }
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                return -1;
+            }
+
+            @Override public Timeout timeout() {
+                return Timeout.NONE;
+            }
+
+            @Override public void close() {
+            }
+        };
+        Pipe pipe = new Pipe(1024);
+        BufferedSink sink = Okio.buffer(pipe.sink(),
+                FlushPolicy.bytes(1024).withMaxDelay(50, TimeUnit.MILLISECONDS));
+        BufferedSource source = Okio.buffer(pipe.source());
+        source.timeout().timeout(5, TimeUnit.SECONDS);
+        Thread writer = new Thread(() -> {
+            try {
+                sink.writeAll(upstream);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        writer.start();
+        try {
+            // The bytes arrive while writeAll waits on its source for more.
+            assertEquals("hello", source.readUtf8(5));
+        } finally {
+            release.countDown();
+            writer.join();
+        }
+    }
+
+    @Test public void gzipSinkOverDelayedSink() throws Exception {
+        Buffer data = new Buffer();
+        BufferedSink delayed = Okio.buffer((Sink) data,
+                FlushPolicy.bytes(1024).withMaxDelay(10, TimeUnit.MILLISECONDS));
+        BufferedSink gzip = Okio.buffer(new GzipSink(delayed));
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            String line = "line " + i + "\n";
+            expected.append(line);
+            gzip.writeUtf8(line);
+            gzip.flush();
+            Thread.sleep(5); // Let some delayed flushes land between writes.
+        }
+        gzip.close();
+
+        BufferedSource source = Okio.buffer(new GzipSource(data));
+        assertEquals(expected.toString(), source.readUtf8());
+    }
+
+    @Test public void deflaterSinkWritesToDelayedSinkBuffer() throws Exception {
+        Buffer data = new Buffer();
+        BufferedSink delayed = Okio.buffer((Sink) data,
+                FlushPolicy.bytes(1024).withMaxDelay(10, TimeUnit.MILLISECONDS));
+        DeflaterSink deflaterSink = new DeflaterSink(delayed, new Deflater());
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            String line = "line " + i + "\n";
+            expected.append(line);
+            deflaterSink.write(new Buffer().writeUtf8(line), line.length());
+            Thread.sleep(5); // Delayed flushes come due while the deflater holds the buffer.
+        }
+        deflaterSink.close();
+
+        Buffer inflated = new Buffer();
+        InflaterSource source = new InflaterSource(data, new Inflater());
+        while (source.read(inflated, Integer.MAX_VALUE) != -1) {
+        }
+        assertEquals(expected.toString(), inflated.readUtf8());
+    }
+
+    @Test public void closeEmitsThenCloses() throws IOException {
+        MockSink mockSink = new MockSink();
+        BufferedSink sink = Okio.buffer(mockSink);
+        sink.writeUtf8("abc");
+        sink.close();
+        mockSink.assertLog("write([hex=616263], 3)", "close()");
+        sink.close();
+        mockSink.assertLog("write([hex=616263], 3)", "close()");
+        try {
+            sink.writeUtf8("d");
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test public void closeClosesEvenIfEmitFails() throws IOException {
+        MockSink mockSink = new MockSink();
+        mockSink.scheduleThrow(0, new IOException("boom"));
+        BufferedSink sink = Okio.buffer(mockSink);
+        sink.writeUtf8("abc");
+        try {
+            sink.close();
+            fail();
+        } catch (IOException expected) {
+            assertEquals("boom", expected.getMessage());
+        }
+        mockSink.assertLog("write([hex=616263], 3)", "close()");
+    }
+}
@@ -22,6 +22,8 @@ import okio.SegmentPool;
 import org.junit.Test;
 import test.TestUtil;
 
+import java.util.Arrays;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import static test.TestUtil.assertEquivalent;
@@ -82,19 +84,30 @@ public final class SegmentSharingTest {
    * Snapshots share their backing byte arrays with the source buffers. Those byte arrays must not
    * be recycled, otherwise the new writer could corrupt the segment.
    */
-//  @Test
-//  public void snapshotSegmentsAreNotRecycled() throws Exception {
-//    Buffer buffer = concatenateBuffers(xs, ys, zs);
-//    ByteString snapshot = buffer.snapshot();
-//    assertEquals(xs + ys + zs, snapshot.utf8());
-//
-//    // While locking the pool, confirm that clearing the buffer doesn't release its segments.
-//    synchronized (SegmentPool.class) {
-//      SegmentPool.segment = null;
-//      buffer.clear();
-//      assertEquals(null, SegmentPool.segment);
-//    }
-//  }
+  @Test
+  public void snapshotSegmentsAreNotRecycled() throws Exception {
+    Buffer buffer = concatenateBuffers(xs, ys, zs);
+    ByteString snapshot = buffer.snapshot();
+    assertEquals(xs + ys + zs, snapshot.utf8());
+
+    // Confirm that clearing the buffer doesn't release its segments to the pool.
+    Buffer drained = drainPool();
+    buffer.clear();
+    assertEquals(0, SegmentPool.byteCount());
+    drained.clear();
+  }
+
+  @Test
+  public void readByteStringSharesLargeSegments() throws Exception {
+    Buffer buffer = concatenateBuffers(xs, ys, zs);
+    ByteString byteString = buffer.readByteString();
+    assertEquals(0, buffer.size());
+    assertEquals(xs + ys + zs, byteString.utf8());
+    assertEquals(ByteString.encodeUtf8(xs + ys + zs), byteString);
+    assertEquals(ByteString.encodeUtf8(xs + ys + zs).hashCode(), byteString.hashCode());
+    assertEquals(ByteString.encodeUtf8(xs + ys + zs).base64(), byteString.base64());
+    assertEquals(ByteString.encodeUtf8(xs + ys + zs).sha256(), byteString.sha256());
+  }
 
   /**
    * Clones share their backing byte arrays with the source buffers. Those byte arrays must not
@@ -105,14 +118,27 @@ public final class SegmentSharingTest {
     Buffer buffer = concatenateBuffers(xs, ys, zs);
     Buffer clone = buffer.clone();
 
-    // While locking the pool, confirm that clearing the buffer doesn't release its segments.
-    synchronized (SegmentPool.class) {
-      SegmentPool.segment = null;
-      buffer.clear();
-      assertEquals(null, SegmentPool.segment);
-      clone.clear();
-      assertEquals(null, SegmentPool.segment);
+    // Confirm that clearing the buffer doesn't release its segments to the pool.
+    Buffer drained = drainPool();
+    buffer.clear();
+    assertEquals(0, SegmentPool.byteCount());
+    clone.clear();
+    assertEquals(0, SegmentPool.byteCount());
+    drained.clear();
+  }
+
+  /**
+   * Takes every segment this thread can reach from the pool, so that a recycled segment would
+   * show up in {@link SegmentPool#byteCount}. Clear the returned buffer to give them back.
+   */
+  private static Buffer drainPool() {
+    Buffer result = new Buffer();
+    byte[] segment = new byte[Segment.SIZE];
+    for (long i = 0; i < SegmentPool.MAX_SIZE; i += Segment.SIZE) {
+      result.write(segment);
     }
+    assertEquals(0, SegmentPool.byteCount());
+    return result;
   }
 
   @Test
@@ -191,6 +217,16 @@ public final class SegmentSharingTest {
     assertEquivalent(bufferB, new Buffer().writeUtf8(us + "aaaa" + ys + "bbbb"));
   }
 
+  @Test
+  public void copyToShortRangeIsCopiedNotShared() throws Exception {
+    Buffer bufferA = concatenateBuffers(xs);
+    Buffer bufferB = new Buffer().writeUtf8("aaaa");
+    bufferA.copyTo(bufferB, 0, 4);
+    bufferB.writeUtf8("bbbb");
+    assertEquals(Arrays.asList(12), bufferB.segmentSizes());
+    assertEquals("aaaaxxxxbbbb", bufferB.readUtf8());
+  }
+
   /**
    * Returns a new buffer containing the contents of {@code segments}, attempting to isolate each
    * string to its own segment in the returned buffer.
@@ -0,0 +1,113 @@
+package test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+import okio.Sink;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class SocketChannelTest {
+    private ServerSocketChannel server;
+    private SocketChannel client;
+    private SocketChannel accepted;
+
+    @Before public void setUp() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        client = SocketChannel.open(server.getLocalAddress());
+        accepted = server.accept();
+    }
+
+    @After public void tearDown() throws IOException {
+        client.close();
+        accepted.close();
+        server.close();
+    }
+
+    @Test public void gatheringWriteAndScatteringRead() throws Exception {
+        byte[] data = new byte[1024 * 1024 + 17];
+        new Random(0).nextBytes(data);
+
+        Thread writer = new Thread(() -> {
+            try {
+                BufferedSink sink = Okio.buffer(Okio.sink(client));
+                sink.write(data);
+                sink.close();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        writer.start();
+
+        BufferedSource source = Okio.buffer(Okio.source(accepted));
+        assertEquals(ByteString.of(data), source.readByteString(data.length));
+        assertTrue(source.exhausted());
+        writer.join();
+    }
+
+    @Test public void socketFromChannelUsesChannel() throws Exception {
+        Sink sink = Okio.sink(client.socket());
+        assertEquals("AsyncTimeout.sink(sink(" + client + "))", sink.toString());
+        Buffer hello = new Buffer();
+        hello.writeUtf8("hello");
+        sink.write(hello, 5);
+
+        BufferedSource source = Okio.buffer(Okio.source(accepted.socket()));
+        assertEquals("hello", source.readUtf8(5));
+    }
+
+    @Test public void readWithTimeout() throws Exception {
+        BufferedSource source = Okio.buffer(Okio.source(accepted));
+        source.timeout().timeout(250, TimeUnit.MILLISECONDS);
+        try {
+            source.require(1);
+            fail();
+        } catch (SocketTimeoutException expected) {
+        }
+    }
+
+    @Test public void nonBlockingChannelRejected() throws Exception {
+        client.configureBlocking(false);
+        try {
+            Okio.sink(client);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test public void writePartialSegments() throws Exception {
+        Buffer buffer = new Buffer();
+        for (int i = 0; i < 40; i++) {
+            buffer.writeUtf8(TestUtil.repeat((char) ('a' + i % 26), 1000));
+            Buffer x = new Buffer();
+            x.writeUtf8("x");
+            buffer.write(x, 1); // Moves a whole segment over, leaving short segments behind.
+        }
+        long size = buffer.size();
+        Okio.sink(client).write(buffer, size);
+        assertEquals(0, buffer.size());
+
+        BufferedSource source = Okio.buffer(Okio.source(accepted));
+        source.require(size);
+        assertEquals(TestUtil.repeat('a', 1000) + "x", source.readUtf8(1001));
+        source.skip(size - 1001 - 1001);
+        assertEquals(TestUtil.repeat('n', 1000) + "x", source.readUtf8(1001));
+    }
+}
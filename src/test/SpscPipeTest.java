@@ -0,0 +1,248 @@
+package test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.HashingSink;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
+import okio.SpscPipe;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class SpscPipeTest {
+    final ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+    @After public void tearDown() throws Exception {
+        executorService.shutdown();
+    }
+
+    @Test public void test() throws Exception {
+        SpscPipe pipe = new SpscPipe(6);
+        pipe.sink().write(new Buffer().writeUtf8("abc"), 3L);
+
+        Source source = pipe.source();
+        Buffer readBuffer = new Buffer();
+        assertEquals(2L, source.read(readBuffer, 2L));
+        assertEquals(1L, source.read(readBuffer, 6L));
+        assertEquals("abc", readBuffer.readUtf8());
+
+        pipe.sink().close();
+        assertEquals(-1L, source.read(readBuffer, 6L));
+
+        source.close();
+    }
+
+    /** Like {@link PipeTest#largeDataset}, with a producer and a consumer on their own threads. */
+    @Test public void largeDataset() throws Exception {
+        final SpscPipe pipe = new SpscPipe(1000L); // An awkward size to force producer/consumer exchange.
+        final long totalBytes = 16L * 1024L * 1024L;
+        ByteString expectedHash = ByteString.decodeHex("7c3b224bea749086babe079360cf29f98d88262d");
+
+        Future<ByteString> sinkHash = executorService.submit(new Callable<ByteString>() {
+            @Override public ByteString call() throws Exception {
+                HashingSink hashingSink = HashingSink.sha1(pipe.sink());
+                Random random = new Random(0);
+                byte[] data = new byte[8192];
+
+                Buffer buffer = new Buffer();
+                for (long i = 0L; i < totalBytes; i += data.length) {
+                    random.nextBytes(data);
+                    buffer.write(data);
+                    hashingSink.write(buffer, buffer.size());
+                }
+
+                hashingSink.close();
+                return hashingSink.hash();
+            }
+        });
+
+        HashingSink hashingSink = HashingSink.sha1(Okio.blackhole());
+        Buffer buffer = new Buffer();
+        Source source = pipe.source();
+        long total = 0L;
+        for (long read; (read = source.read(buffer, Long.MAX_VALUE)) != -1L; ) {
+            hashingSink.write(buffer, read);
+            total += read;
+        }
+        source.close();
+
+        assertEquals(totalBytes, total);
+        assertEquals(expectedHash, sinkHash.get());
+        assertEquals(expectedHash, hashingSink.hash());
+    }
+
+    @Test public void sourceTimeout() throws Exception {
+        SpscPipe pipe = new SpscPipe(3L);
+        pipe.source().timeout().timeout(500, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        try {
+            pipe.source().read(new Buffer(), 1L);
+            fail();
+        } catch (InterruptedIOException expected) {
+            assertEquals("timeout", expected.getMessage());
+        }
+        assertElapsed(500L, start);
+    }
+
+    @Test public void sinkBlocksUntilTimeoutWhenFull() throws Exception {
+        SpscPipe pipe = new SpscPipe(3L);
+        Sink sink = pipe.sink();
+        sink.timeout().timeout(500, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        try {
+            sink.write(new Buffer().writeUtf8("abcdef"), 6L);
+            fail();
+        } catch (InterruptedIOException expected) {
+            assertEquals("timeout", expected.getMessage());
+        }
+        assertElapsed(500L, start);
+
+        Buffer readBuffer = new Buffer();
+        assertEquals(3L, pipe.source().read(readBuffer, 6L));
+        assertEquals("abc", readBuffer.readUtf8());
+    }
+
+    @Test public void sinkBlocksOnSlowReader() throws Exception {
+        final SpscPipe pipe = new SpscPipe(3L);
+        executorService.execute(() -> {
+            try {
+                Buffer buffer = new Buffer();
+                Thread.sleep(500L);
+                assertEquals(3, pipe.source().read(buffer, Long.MAX_VALUE));
+                assertEquals("abc", buffer.readUtf8());
+                Thread.sleep(500L);
+                assertEquals(3, pipe.source().read(buffer, Long.MAX_VALUE));
+                assertEquals("def", buffer.readUtf8());
+            } catch (IOException | InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+
+        long start = System.nanoTime();
+        pipe.sink().write(new Buffer().writeUtf8("abcdef"), 6L);
+        assertElapsed(500L, start);
+    }
+
+    /** Like {@code Pipe}, the sink takes {@code maxBufferSize} bytes however small its writes are. */
+    @Test public void smallWritesFillBufferBeforeReaderStarts() throws Exception {
+        SpscPipe pipe = new SpscPipe(8192L);
+        Sink sink = pipe.sink();
+        sink.timeout().timeout(500, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 100; i++) {
+            sink.write(new Buffer().writeUtf8(Integer.toString(i % 10)), 1L);
+        }
+        sink.close();
+
+        BufferedSource source = Okio.buffer(pipe.source());
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            expected.append(i % 10);
+        }
+        assertEquals(expected.toString(), source.readUtf8());
+    }
+
+    /** Bytes that overflowed the ring are read in order with those published after them. */
+    @Test public void overflowReadInOrder() throws Exception {
+        final SpscPipe pipe = new SpscPipe(64L * 1024L);
+        final int count = 100000;
+        executorService.execute(() -> {
+            try {
+                Sink sink = pipe.sink();
+                Buffer buffer = new Buffer();
+                for (int i = 0; i < count; i++) {
+                    buffer.writeInt(i);
+                    sink.write(buffer, buffer.size());
+                }
+                sink.close();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+
+        BufferedSource source = Okio.buffer(pipe.source());
+        source.timeout().timeout(5, TimeUnit.SECONDS);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, source.readInt());
+        }
+        assertTrue(source.exhausted());
+    }
+
+    /** The timeout limits each wait for the reader, not the whole write. */
+    @Test public void sinkTimeoutRestartsAfterProgress() throws Exception {
+        final SpscPipe pipe = new SpscPipe(1024L);
+        executorService.execute(() -> {
+            try {
+                Buffer buffer = new Buffer();
+                for (long total = 0L; total < 16L * 1024L; ) {
+                    Thread.sleep(100L);
+                    total += pipe.source().read(buffer, 1024L);
+                }
+            } catch (IOException | InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+
+        Sink sink = pipe.sink();
+        sink.timeout().timeout(500, TimeUnit.MILLISECONDS);
+        Buffer data = new Buffer().write(new byte[16 * 1024]);
+        sink.write(data, data.size());
+    }
+
+    @Test public void sinkWriteFailsByClosedReader() throws Exception {
+        final SpscPipe pipe = new SpscPipe(3L);
+        executorService.execute(() -> {
+            try {
+                Thread.sleep(500L);
+                pipe.source().close();
+            } catch (IOException | InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+
+        try {
+            pipe.sink().write(new Buffer().writeUtf8("abcdef"), 6L);
+            fail();
+        } catch (IOException expected) {
+            assertEquals("source is closed", expected.getMessage());
+        }
+    }
+
+    @Test public void sourceReadUnblockedByClosedSink() throws Exception {
+        final SpscPipe pipe = new SpscPipe(3L);
+        executorService.execute(() -> {
+            try {
+                Thread.sleep(500L);
+                pipe.sink().close();
+            } catch (IOException | InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+
+        long start = System.nanoTime();
+        assertEquals(-1L, pipe.source().read(new Buffer(), Long.MAX_VALUE));
+        assertElapsed(500L, start);
+    }
+
+    /** Fails the test unless the time from start until now is within 250 ms of {@code millis}. */
+    private void assertElapsed(long millis, long start) {
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals((double) millis, (double) elapsed, 250.0);
+    }
+}
@@ -23,6 +23,8 @@ import java.io.InterruptedIOException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static org.junit.Assert.*;
 
@@ -139,6 +141,92 @@ public final class WaitUntilNotifiedTest {
     assertElapsed(0.0, start);
   }
 
+  @Test
+  public void awaitSignalSignalled() throws Exception {
+    final ReentrantLock lock = new ReentrantLock();
+    final Condition condition = lock.newCondition();
+    Timeout timeout = new Timeout();
+    timeout.timeout(5000, TimeUnit.MILLISECONDS);
+
+    double start = now();
+    executorService.schedule(new Runnable() {
+      @Override public void run() {
+        lock.lock();
+        try {
+          condition.signal();
+        } finally {
+          lock.unlock();
+        }
+      }
+    }, 1000, TimeUnit.MILLISECONDS);
+
+    lock.lock();
+    try {
+      timeout.awaitSignal(condition);
+    } finally {
+      lock.unlock();
+    }
+    assertElapsed(1000.0, start);
+  }
+
+  @Test
+  public void awaitSignalTimeout() throws Exception {
+    ReentrantLock lock = new ReentrantLock();
+    Condition condition = lock.newCondition();
+    Timeout timeout = new Timeout();
+    timeout.timeout(1000, TimeUnit.MILLISECONDS);
+    double start = now();
+    lock.lock();
+    try {
+      timeout.awaitSignal(condition);
+      fail();
+    } catch (InterruptedIOException expected) {
+      assertEquals("timeout", expected.getMessage());
+    } finally {
+      lock.unlock();
+    }
+    assertElapsed(1000.0, start);
+  }
+
+  @Test
+  public void awaitSignalDeadlineAlreadyReached() throws Exception {
+    ReentrantLock lock = new ReentrantLock();
+    Condition condition = lock.newCondition();
+    Timeout timeout = new Timeout();
+    timeout.deadlineNanoTime(System.nanoTime());
+    double start = now();
+    lock.lock();
+    try {
+      timeout.awaitSignal(condition);
+      fail();
+    } catch (InterruptedIOException expected) {
+      assertEquals("timeout", expected.getMessage());
+    } finally {
+      lock.unlock();
+    }
+    assertElapsed(0.0, start);
+  }
+
+  @Test
+  public void awaitSignalThreadInterrupted() throws Exception {
+    ReentrantLock lock = new ReentrantLock();
+    Condition condition = lock.newCondition();
+    Timeout timeout = new Timeout();
+    double start = now();
+    Thread.currentThread().interrupt();
+    lock.lock();
+    try {
+      timeout.awaitSignal(condition);
+      fail();
+    } catch (InterruptedIOException expected) {
+      assertEquals("interrupted", expected.getMessage());
+      assertFalse(Thread.interrupted());
+    } finally {
+      lock.unlock();
+    }
+    assertElapsed(0.0, start);
+  }
+
   /** Returns the nanotime in milliseconds as a double for measuring timeouts. */
   private double now() {
     return System.nanoTime() / 1000000.0d;